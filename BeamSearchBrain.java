@@ -0,0 +1,252 @@
+// BeamSearchBrain.java
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ A LameBrain that searches several pieces deep with a beam search.
+ Depth 1 places the current piece; each deeper level places the
+ next piece from the preview on every board kept at the level
+ above. Only the best "width" boards, by rateBoard(), are kept
+ at each level, and the move chosen is the first move of the
+ best board at the deepest level reached.
+
+ <p>Beam nodes are compact Board snapshots (Board.saveState()) in
+ a pool allocated once for the board size, and the search runs
+ on the board it is given, restoring it to each node in turn and
+ finally back to where it started. Once the pool exists a search
+ allocates nothing. Without a preview it plays like LameBrain.
+ Every level of the beam depends on the whole level above, so
+ the search is serial, and setPool() is ignored.
+ The brain counts the boards it rates and the time it spends,
+ for getNodesPerSecond().
+*/
+public class BeamSearchBrain extends LameBrain implements PreviewBrain {
+    public static final int DEFAULT_WIDTH = 8;
+    public static final int DEFAULT_DEPTH = 3;
+
+    private int beamWidth;
+    private int depth;
+
+    // the node pool -- two beams of snapshots plus the starting board
+    private int[][] snapshots = new int[0][];
+    private int stateSize = -1;
+    private int[] start;
+
+    // the current beam and the one being built, by snapshot index
+    private int[] beam;
+    private double[] beamScore;
+    private int[] beamOrder;    // the order the boards were found in, for ties
+    private int beamSize;
+    private int[] next;
+    private double[] nextScore;
+    private int[] nextOrder;
+    private int nextSize;
+    private int found;
+
+    // the first move each snapshot descends from
+    private int[] rootX;
+    private int[] rootY;
+    private Piece[] rootPiece;
+
+    private long nodes;
+    private long nanos;
+
+    public BeamSearchBrain() {
+        this(DEFAULT_WIDTH, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Makes a brain that keeps beamWidth boards per level and
+     * searches depth pieces deep (the current piece counts as one).
+     */
+    public BeamSearchBrain(int beamWidth, int depth) {
+        super();
+        setBeam(beamWidth, depth);
+    }
+
+    public void setBeam(int beamWidth, int depth) {
+        if (beamWidth < 1 || depth < 1) {
+            throw new RuntimeException("Bad beam " + beamWidth + "x" + depth);
+        }
+        this.beamWidth = beamWidth;
+        this.depth = depth;
+        stateSize = -1; // reallocate the pool on the next search
+    }
+
+    /**
+     * Ignored, the beam is searched one board at a time.
+     */
+    public void setPool(ForkJoinPool pool) {
+    }
+
+    public boolean canSearchInParallel() {
+        return false;
+    }
+
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Plays like LameBrain, with no preview to search.
+     */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return bestMove(board, piece, NO_PREVIEW, limitHeight, move);
+    }
+
+    /**
+     * Searches min(depth, preview.length + 1) pieces deep.
+     * See PreviewBrain.
+     */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        long startTime = System.nanoTime();
+        if (move == null) move = new Brain.Move();
+        allocate(board);
+        board.saveState(start);
+
+        PlacementTable table = PlacementTable.forWidth(board.getWidth());
+
+        // depth 1 -- every placement of the current piece is a root
+        nextSize = 0;
+        found = 0;
+        expand(board, table.getPlacements(piece), limitHeight, -1);
+        swapBeams();
+
+        int levels = Math.min(depth, preview.length + 1);
+        for (int level = 1; level < levels && beamSize > 0; level++) {
+            PlacementTable.Placement[] placements = table.getPlacements(preview[level - 1]);
+            nextSize = 0;
+            found = 0;
+            for (int i = 0; i < beamSize; i++) {
+                board.restoreState(snapshots[beam[i]]);
+                expand(board, placements, limitHeight, beam[i]);
+            }
+            if (nextSize == 0) break; // nothing fits -- judge by the level above
+            swapBeams();
+        }
+        board.restoreState(start);
+
+        nanos += System.nanoTime() - startTime;
+        if (beamSize == 0) return (null); // could not find a play at all!
+
+        int best = 0;
+        for (int i = 1; i < beamSize; i++) {
+            if (beamScore[i] < beamScore[best]
+                || (beamScore[i] == beamScore[best] && beamOrder[i] < beamOrder[best])) best = i;
+        }
+        move.x = rootX[beam[best]];
+        move.y = rootY[beam[best]];
+        move.piece = rootPiece[beam[best]];
+        move.score = beamScore[best];
+        return (move);
+    }
+
+    // tries every placement on the board (in the state of snapshot
+    // parent, or the starting board if parent is -1) and offers each
+    // resulting board to the next beam
+    private void expand(Board board, PlacementTable.Placement[] placements, int limitHeight, int parent) {
+        for (int i = 0; i < placements.length; i++) {
+            PlacementTable.Placement placement = placements[i];
+            int y = board.dropHeight(placement);
+            if (y >= limitHeight - placement.piece.getHeight() + 1) continue;
+
+            int result = board.place(placement, y);
+            if (result <= Board.PLACE_ROW_FILLED) {
+                if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                nodes++;
+                double score = rateBoard(board);
+                int slot = accept(score);
+                if (slot >= 0) {
+                    board.saveState(snapshots[slot]);
+                    if (parent < 0) {
+                        rootX[slot] = placement.x;
+                        rootY[slot] = y;
+                        rootPiece[slot] = placement.piece;
+                    } else {
+                        rootX[slot] = rootX[parent];
+                        rootY[slot] = rootY[parent];
+                        rootPiece[slot] = rootPiece[parent];
+                    }
+                }
+            }
+            board.undo();
+        }
+    }
+
+    // makes room in the next beam for a board with the given score,
+    // and returns the snapshot to save it in, or -1 if it doesn't make the cut.
+    // ties go to the board found first, like LameBrain
+    private int accept(double score) {
+        int order = found++;
+        if (nextSize < beamWidth) {
+            nextScore[nextSize] = score;
+            nextOrder[nextSize] = order;
+            return next[nextSize++];
+        }
+        int worst = 0;
+        for (int i = 1; i < nextSize; i++) {
+            if (nextScore[i] > nextScore[worst]
+                || (nextScore[i] == nextScore[worst] && nextOrder[i] > nextOrder[worst])) worst = i;
+        }
+        if (score >= nextScore[worst]) return -1;
+        nextScore[worst] = score;
+        nextOrder[worst] = order;
+        return next[worst];
+    }
+
+    // the next beam becomes the current one, and the old current
+    // beam's snapshots are free for the next level
+    private void swapBeams() {
+        int[] t = beam; beam = next; next = t;
+        double[] s = beamScore; beamScore = nextScore; nextScore = s;
+        int[] o = beamOrder; beamOrder = nextOrder; nextOrder = o;
+        beamSize = nextSize;
+        nextSize = 0;
+        found = 0;
+    }
+
+    // sets up the pool for the board's size, once
+    private void allocate(Board board) {
+        if (stateSize == board.getStateSize()) return;
+        stateSize = board.getStateSize();
+        int count = 2 * beamWidth;
+        snapshots = new int[count][stateSize];
+        start = new int[stateSize];
+        beam = new int[beamWidth];
+        next = new int[beamWidth];
+        for (int i = 0; i < beamWidth; i++) {
+            beam[i] = i;
+            next[i] = beamWidth + i;
+        }
+        beamScore = new double[beamWidth];
+        nextScore = new double[beamWidth];
+        beamOrder = new int[beamWidth];
+        nextOrder = new int[beamWidth];
+        rootX = new int[count];
+        rootY = new int[count];
+        rootPiece = new Piece[count];
+    }
+
+    /**
+     * Returns the number of boards rated so far.
+     */
+    public long getNodesExpanded() {
+        return nodes;
+    }
+
+    /**
+     * Returns the boards rated per second of search so far.
+     */
+    public double getNodesPerSecond() {
+        return (nanos == 0) ? 0 : nodes * 1e9 / nanos;
+    }
+
+    public void resetStats() {
+        nodes = 0;
+        nanos = 0;
+    }
+}
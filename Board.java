@@ -1,13 +1,32 @@
 // Board.java
 
-import java.awt.*;
 import java.util.*;
 
 
 /**
  Represents a Tetris board -- essentially a 2-d grid
  of booleans. Supports tetris pieces and row clearning.
+ The grid is stored as a "bitboard" -- one int per row,
+ with bit x set when the block at (x, y) is filled -- so
+ collision checks, full-row detection and row clearing
+ work on whole rows at a time. Boards are therefore at
+ most 32 blocks wide.
  Has an "undo" feature that allows clients to add and remove pieces efficiently.
+ Rather than backing up the whole grid, every change to a row, a column
+ height or the max height is recorded in an undo journal, so the cost
+ of place()/undo() depends on the size of the piece, not the board.
+ For lookahead, push() opens a nested undo level on top of a pending
+ place() so a second piece can be placed, rated and undone, and
+ pop() unwinds back to the state at the push() -- all without
+ copying the board.
+ For searches that keep many positions, saveState() copies the
+ board into a compact int[] snapshot and restoreState() puts it back.
+ The board keeps a 64-bit Zobrist hash of its filled blocks,
+ updated with each change, so positions can be told apart
+ without scanning the grid -- see getHash().
+ Optionally (setTrackFeatures()) the board also keeps the holes,
+ bumpiness, aggregate height and row/column transitions up to date
+ as rows and heights change, so a brain can read them in constant time.
  Does not do any drawing or have any idea of pixels. Intead,
  just represents the abtsract 2-d board.
   See Tetris-Architecture.html for an overview.
@@ -21,19 +40,50 @@ public final class Board  {
     private int width;
     private int height;
     private int maxHeight;
-    private boolean[][] grid;
-    private int widths[];
+    private int fullRow;    // mask of a row filled all the way across
+    private int[] rows;     // bit x of rows[y] is the block at (x, y)
     private int heights[];
     private boolean committed;
     
-    // backup data structures
-    private boolean[][] bGrid;
-    private int[] bWidths;
-    private int[] bHeights;
-    private int bMaxHeight;
+    // undo journal -- (what, old value) pairs for every change since
+    // the last commit, where "what" is one of the J_ kinds below plus an index
+    private int[] journal;
+    private int journalSize;
+    private int journalBase;    // where undo() stops at the current level
+
+    // nested undo levels opened by push()
+    private int depth;
+    private int[] pushSize;     // journalSize at each push()
+    private int[] pushBase;     // journalBase of the enclosing level
+    private boolean[] pushCommitted;    // committed state of the enclosing level
+
+    // incrementally maintained features, see setTrackFeatures()
+    private boolean trackFeatures;
+    private int aggregateHeight;
+    private int cellCount;
+    private int bumpiness;
+    private int rowTransitions;
+    private int columnTransitions;
         
-    private boolean DEBUG = true;
+    // Zobrist hash -- the XOR of zobrist[y*32 + x] over the filled blocks
+    private long hash;
+    private final long[] zobrist;
+
+    private boolean DEBUG = false;
     private static final int HEIGHT = 2;
+
+    // journal entry kinds -- the low bits of "what" hold the index
+    private static final int J_ROW = 0 << 28;
+    private static final int J_HEIGHT = 1 << 28;
+    private static final int J_MAX_HEIGHT = 2 << 28;
+    private static final int J_INDEX = (1 << 28) - 1;
+
+    // default number of nested push() levels
+    public static final int UNDO_DEPTH = 4;
+
+    // Zobrist keys shared by all boards up to this many rows (internal height)
+    private static final int ZOBRIST_ROWS = 64;
+    private static final long[] ZOBRIST = zobristKeys(ZOBRIST_ROWS);
     
     
     /**
@@ -41,31 +91,51 @@ public final class Board  {
      measured in blocks.
     */
     public Board(int aWidth, int aHeight) {
+        this(aWidth, aHeight, UNDO_DEPTH);
+    }
+
+
+    /**
+     Creates an empty board of the given width and height
+     that supports up to undoDepth nested push() levels.
+    */
+    public Board(int aWidth, int aHeight, int undoDepth) {
+        if (aWidth < 1 || aWidth > 32) {
+            throw new RuntimeException("Bad board width "+aWidth);
+        }
         width = aWidth;
         height = aHeight+HEIGHT;
+        fullRow = (width == 32) ? -1 : (1 << width) - 1;
 
-        grid = new boolean[width][height];
-        widths = new int[height];
+        rows = new int[height];
         heights = new int[width];
-        bGrid = new boolean[width][height];
-        bWidths = new int[height];
-        bHeights = new int[width];
+        // room for a place() and a clearRows() that touches every row,
+        // at every level
+        journal = new int[4 * (height + width + 8) * (undoDepth + 1)];
+        journalSize = 0;
+        journalBase = 0;
+        depth = 0;
+        pushSize = new int[undoDepth];
+        pushBase = new int[undoDepth];
+        pushCommitted = new boolean[undoDepth];
         maxHeight = 0;
-        bMaxHeight = 0;
         committed = true;
-        for (int i = 0; i < width; i++) {
-            heights[i] = 0;
-            bHeights[i] = 0;
-            for (int j = 0; j < height; j++) {
-                grid[i][j] = false;
-                bGrid[i][j] = false;
-            }
-        }
-        for (int i = 0; i < height; i++) {
-            bWidths[i] = 0;
-            widths[i] = 0;
+        hash = 0;
+        zobrist = (height <= ZOBRIST_ROWS) ? ZOBRIST : zobristKeys(height);
+    }
+
+
+    // the key for block (x, y) is fixed -- a splitmix64 hash of
+    // y*32 + x -- so boards of any size hash the same blocks alike
+    private static long[] zobristKeys(int rows) {
+        long[] keys = new long[rows * 32];
+        for (int i = 0; i < keys.length; i++) {
+            long z = (i + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            keys[i] = z ^ (z >>> 31);
         }
-                
+        return keys;
     }
     
     
@@ -85,6 +155,18 @@ public final class Board  {
     }
     
     
+    /**
+     Returns the Zobrist hash of the filled blocks. Boards with the
+     same blocks filled have the same hash, whatever their history;
+     different boards almost always differ. Kept up to date by
+     place(), clearRows(), undo(), pop() and restoreState() with work
+     proportional to the blocks they change.
+    */
+    public long getHash() {
+        return hash;
+    }
+
+
     /**
      Returns the max column height present in the board.
      For an empty board this is 0.
@@ -101,25 +183,40 @@ public final class Board  {
     public void sanityCheck() {
         if (DEBUG) {
             // consistency check the board state
-            for (int i = 0; i < height; i++)
-                for (int j = 0; j < width; j++) {
-                    int count = 0;
-                    if (maxHeight < heights[j]) {
-                        throw new RuntimeException("Maxheight exception "
-                                    +maxHeight+" "+j+" "+heights[j]); 
-                    }
-                    if (grid[j][i]) {
-                        count++;
-                        if (i > heights[j]) {
-                            throw new RuntimeException("bad height "
-                                        +j+" "+i+" "+heights[j]);
-                        }
-                        if (count > widths[i]) {
-                            throw new RuntimeException("Bad width "
-                                        +j+" "+i+" "+widths[i]);
-                        }
+            int above = 0; // union of all the rows above y
+            for (int y = height - 1; y >= 0; y--) {
+                if ((rows[y] & ~fullRow) != 0) {
+                    throw new RuntimeException("Bad row "+y+" "+rows[y]);
+                }
+                // columns whose top block is in this row
+                int tops = rows[y] & ~above;
+                for (int x = 0; x < width; x++) {
+                    if ((tops >>> x & 1) != 0 && heights[x] != y + 1) {
+                        throw new RuntimeException("bad height "
+                                    +x+" "+y+" "+heights[x]);
                     }
                 }
+                above |= rows[y];
+            }
+            long h = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if ((rows[y] >>> x & 1) != 0) h ^= zobrist[y << 5 | x];
+                }
+            }
+            if (h != hash) {
+                throw new RuntimeException("Bad hash "+hash+" "+h);
+            }
+            for (int x = 0; x < width; x++) {
+                if ((above >>> x & 1) == 0 && heights[x] != 0) {
+                    throw new RuntimeException("bad height "
+                                +x+" "+heights[x]);
+                }
+                if (maxHeight < heights[x]) {
+                    throw new RuntimeException("Maxheight exception "
+                                +maxHeight+" "+x+" "+heights[x]);
+                }
+            }
         }
     }
     
@@ -142,6 +239,23 @@ public final class Board  {
         // System.out.println("height is "+h);
         return h;
     }
+
+
+    /**
+     Like dropHeight(piece, x), for a precomputed placement.
+    */
+    public int dropHeight(PlacementTable.Placement placement) {
+        int[] s = placement.skirt;
+        int x = placement.x;
+        int h = heights[x] - s[0];
+        for (int i = 1; i < s.length; i++) {
+            int hi = heights[x+i] - s[i];
+            if (hi > h) {
+                h = hi;
+            }
+        }
+        return h;
+    }
     
     
     /**
@@ -159,7 +273,130 @@ public final class Board  {
      the given row.
     */
     public int getRowWidth(int y) {
-        return widths[y];
+        return Integer.bitCount(rows[y]);
+    }
+    
+    
+    /**
+     Returns the filled blocks of the given row as a bitmask --
+     bit x is set if the block at (x, y) is filled.
+    */
+    public int getRow(int y) {
+        return rows[y];
+    }
+
+
+    /**
+     Turns the incremental feature tracking on or off.
+     Turning it on computes the features from scratch once;
+     after that place(), clearRows(), undo() and pop() keep them
+     up to date with work proportional to the rows and columns
+     they change. Tracking is off for a new board.
+    */
+    public void setTrackFeatures(boolean track) {
+        trackFeatures = track;
+        if (track) {
+            aggregateHeight = 0;
+            bumpiness = 0;
+            for (int x = 0; x < width; x++) {
+                aggregateHeight += heights[x];
+                if (x > 0) {
+                    bumpiness += Math.abs(heights[x] - heights[x-1]);
+                }
+            }
+            cellCount = 0;
+            rowTransitions = 0;
+            columnTransitions = 0;
+            for (int y = 0; y < height; y++) {
+                cellCount += Integer.bitCount(rows[y]);
+                rowTransitions += rowTransitions(rows[y]);
+                if (y > 0) {
+                    columnTransitions += columnTransitions(y);
+                }
+            }
+        }
+    }
+
+
+    /**
+     Returns true if the board is tracking its features.
+    */
+    public boolean isTrackingFeatures() {
+        return trackFeatures;
+    }
+
+
+    /**
+     Returns the number of empty blocks below the top of their column.
+     The feature getters require setTrackFeatures(true).
+    */
+    public int getHoles() {
+        checkTracking();
+        return aggregateHeight - cellCount;
+    }
+
+
+    /**
+     Returns the sum of the column heights.
+    */
+    public int getAggregateHeight() {
+        checkTracking();
+        return aggregateHeight;
+    }
+
+
+    /**
+     Returns the sum of the height differences of neighboring columns.
+    */
+    public int getBumpiness() {
+        checkTracking();
+        return bumpiness;
+    }
+
+
+    /**
+     Returns the number of filled blocks with an empty block to the
+     left or right, counting each side (the walls count as filled).
+    */
+    public int getRowTransitions() {
+        checkTracking();
+        return rowTransitions;
+    }
+
+
+    /**
+     Returns the number of filled blocks with an empty block below
+     or above, counting each side (the floor counts as filled).
+     Matches LameBrain, which does not look above the top row.
+    */
+    public int getColumnTransitions() {
+        checkTracking();
+        return columnTransitions;
+    }
+
+
+    private void checkTracking() {
+        if (!trackFeatures) {
+            throw new RuntimeException("Board features are not being tracked");
+        }
+    }
+
+
+    // row transitions within a single row mask
+    private int rowTransitions(int row) {
+        int emptyLeft = row & ~(row << 1) & ~1;
+        int emptyRight = row & ~(row >>> 1) & ~(1 << (width - 1));
+        return Integer.bitCount(emptyLeft) + Integer.bitCount(emptyRight);
+    }
+
+
+    // column transitions between rows y-1 and y
+    private int columnTransitions(int y) {
+        int count = Integer.bitCount(rows[y] & ~rows[y-1]);
+        if (y - 1 < height - HEIGHT - 1) {
+            count += Integer.bitCount(rows[y-1] & ~rows[y]);
+        }
+        return count;
     }
     
     
@@ -171,7 +408,7 @@ public final class Board  {
     public final boolean getGrid(int x, int y) {
         if (x < 0 || x >= width || y < 0 || y >= height)
             return true;
-        return grid[x][y];
+        return (rows[y] >>> x & 1) != 0;
     }
     
     
@@ -190,93 +427,178 @@ public final class Board  {
      If part of the piece would fall out of bounds, the placement
      does not change the board at all, and PLACE_OUT_BOUNDS is returned.
      If the placement is "bad" --interfering with existing blocks in the grid --
-     then the placement is halted partially complete and PLACE_BAD is returned.
-     An undo() will remove the bad placement.
+     then PLACE_BAD is returned and no blocks are added, but the board
+     is still left uncommitted; an undo() will return it to the committed state.
+
+     <p>Implementation: the piece is placed a row at a time using
+     its row masks, and the column heights are updated from its tops.
     */
     public int place(Piece piece, int x, int y) {
         if (committed) {
-            if (x < 0 || x + piece.getWidth() > width || y < 0 || y >= height) {
+            if (x < 0 || x + piece.getWidth() > width || y < 0
+                    || y + piece.getHeight() > height) {
                 return PLACE_OUT_BOUNDS;
             }
-            committed = false;
-            // copy our data structures to backups
-            bMaxHeight = maxHeight;
-            System.arraycopy(heights, 0, bHeights, 0, width);
-            System.arraycopy(widths, 0, bWidths, 0, height);
-            for (int i = 0; i < width; i++) {
-                System.arraycopy(grid[i], 0, bGrid[i], 0, height);
-            }
-            Point[] body = piece.getBody();
-            int h = piece.getHeight();
-            int ret = PLACE_OK;
-            for (int i = 0; i < body.length; i++) {
-                int newx = x + body[i].x;
-                int newy = y + body[i].y;
-                //System.out.println("Filling square "+newx+" "+newy);
-                if (grid[newx][newy]) {
-                    return PLACE_BAD;
-                }
-                grid[newx][newy] = true;
-                widths[newy] += 1;
-                if (widths[newy] == width) {
-                    ret = PLACE_ROW_FILLED;
-                }
-                if (newy + 1 > heights[newx]) {
-                    heights[newx] = newy + 1;
-                    if (heights[newx] > maxHeight) {
-                        maxHeight = heights[newx];
-                    }
-                }
+            return placeMasks(piece.getRowMasks(), x, piece.getTops(), x, y);
+        }
+        return PLACE_BAD;
+    }
+
+
+    /**
+     Like place(piece, x, y), for a precomputed placement.
+     The row masks are already shifted, so only y needs checking.
+    */
+    public int place(PlacementTable.Placement placement, int y) {
+        if (committed) {
+            if (placement.x + placement.tops.length > width || y < 0
+                    || y + placement.masks.length > height) {
+                return PLACE_OUT_BOUNDS;
             }
-            sanityCheck();
-            // whew!  We made it!
-            committed = false;
-            return ret;
+            return placeMasks(placement.masks, 0, placement.tops, placement.x, y);
         }
         return PLACE_BAD;
     }
 
+
+    // adds the row masks (shifted left by shift) at row y, and raises
+    // the heights of the columns from x on to the tops
+    private int placeMasks(int[] masks, int shift, int[] tops, int x, int y) {
+        committed = false;
+        for (int i = 0; i < masks.length; i++) {
+            if ((rows[y + i] & (masks[i] << shift)) != 0) {
+                return PLACE_BAD;
+            }
+        }
+        int ret = PLACE_OK;
+        for (int i = 0; i < masks.length; i++) {
+            setRow(y + i, rows[y + i] | (masks[i] << shift));
+            if (rows[y + i] == fullRow) {
+                ret = PLACE_ROW_FILLED;
+            }
+        }
+        for (int i = 0; i < tops.length; i++) {
+            if (y + tops[i] > heights[x + i]) {
+                setHeight(x + i, y + tops[i]);
+            }
+        }
+        if (y + masks.length > maxHeight) {
+            setMaxHeight(y + masks.length);
+        }
+        sanityCheck();
+        // whew!  We made it!
+        return ret;
+    }
+
     /**
      Deletes rows that are filled all the way across, moving
      things above down. Returns true if any row clearing happened.
      
-     <p>Implementation: This is complicated.
-     Ideally, you want to copy each row down
-     to its correct location in one pass.
+     <p>Implementation: each row is copied down
+     to its correct location in one pass -- with the
+     bitboard a whole row moves in a single assignment.
      Note that more than one row may be filled.
     */
     public boolean clearRows() {
         committed = false;
         int rowsToClear = 0;
         for (int i = 0; i < maxHeight; i++) {
-            if (widths[i] == width) {
+            if (rows[i] == fullRow) {
                 rowsToClear++;
             } else if (rowsToClear > 0) {
                 // move this row down specified amount
-                for (int j = 0; j < width; j++)
-                    grid[j][i - rowsToClear] = grid[j][i];
-                widths[i- rowsToClear] = widths[i];
+                setRow(i - rowsToClear, rows[i]);
             }
         }
+        if (rowsToClear == 0) {
+            return false;
+        }
         // blank the top rows
         for (int i = maxHeight - rowsToClear; i < maxHeight; i++) {
-            widths[i] = 0;
-            for (int j = 0; j < width; j++)
-                grid[j][i] = false;
+            setRow(i, 0);
         }
         // watch out for "holes"
         for (int i = 0; i < width; i++) {
-            heights[i] = heights[i] - rowsToClear;
-            while (heights[i] >= 1 && !grid[i][heights[i]-1]) {
-                heights[i]--;
+            int h = heights[i] - rowsToClear;
+            while (h >= 1 && (rows[h-1] >>> i & 1) == 0) {
+                h--;
             }
+            setHeight(i, h);
         }
-        maxHeight = maxHeight - rowsToClear;
+        setMaxHeight(maxHeight - rowsToClear);
         sanityCheck();
-        if (rowsToClear > 0){
-            return true;
+        return true;
+    }
+
+
+    /*
+     Change helpers -- all changes to the board state go through
+     these so they are recorded in the undo journal.
+     Only actual changes are recorded.
+    */
+    private void setRow(int y, int row) {
+        if (rows[y] != row) {
+            record(J_ROW | y, rows[y]);
+            writeRow(y, row);
         }
-        return false;
+    }
+
+    private void setHeight(int x, int h) {
+        if (heights[x] != h) {
+            record(J_HEIGHT | x, heights[x]);
+            writeHeight(x, h);
+        }
+    }
+
+    // stores a row, updating the hash and the tracked features
+    private void writeRow(int y, int row) {
+        // toggle the key of every block that changes
+        int changed = rows[y] ^ row;
+        while (changed != 0) {
+            hash ^= zobrist[y << 5 | Integer.numberOfTrailingZeros(changed)];
+            changed &= changed - 1;
+        }
+        if (trackFeatures) {
+            cellCount += Integer.bitCount(row) - Integer.bitCount(rows[y]);
+            rowTransitions += rowTransitions(row) - rowTransitions(rows[y]);
+            if (y > 0) columnTransitions -= columnTransitions(y);
+            if (y + 1 < height) columnTransitions -= columnTransitions(y + 1);
+            rows[y] = row;
+            if (y > 0) columnTransitions += columnTransitions(y);
+            if (y + 1 < height) columnTransitions += columnTransitions(y + 1);
+        }
+        else {
+            rows[y] = row;
+        }
+    }
+
+    // stores a column height, updating the tracked features
+    private void writeHeight(int x, int h) {
+        if (trackFeatures) {
+            aggregateHeight += h - heights[x];
+            if (x > 0) {
+                bumpiness += Math.abs(h - heights[x-1]) - Math.abs(heights[x] - heights[x-1]);
+            }
+            if (x + 1 < width) {
+                bumpiness += Math.abs(heights[x+1] - h) - Math.abs(heights[x+1] - heights[x]);
+            }
+        }
+        heights[x] = h;
+    }
+
+    private void setMaxHeight(int h) {
+        if (maxHeight != h) {
+            record(J_MAX_HEIGHT, maxHeight);
+            maxHeight = h;
+        }
+    }
+
+    private void record(int what, int old) {
+        if (journalSize + 2 > journal.length) {
+            journal = Arrays.copyOf(journal, 2 * journal.length);
+        }
+        journal[journalSize++] = what;
+        journal[journalSize++] = old;
     }
 
 
@@ -291,31 +613,133 @@ public final class Board  {
     public void undo() {
         if (!committed) {
             committed = true;
-            // copy things back
-            maxHeight = bMaxHeight;
-            int[] temp = widths;
-            widths = bWidths;
-            bWidths = temp;
-            temp = heights;
-            heights = bHeights;
-            bHeights = temp;
-            for (int i = 0; i < width; i++) {
-                boolean[] temp2 = grid[i];
-                grid[i] = bGrid[i];
-                bGrid[i] = temp2;
-                maxHeight = Math.max(maxHeight, heights[i]);
-            }
+            rollback(journalBase);
             sanityCheck();
         }
     }
+
+
+    /**
+     Opens a nested undo level. The pending place()/clearRows()
+     (if any) is kept, and the board behaves as if committed, so
+     another piece may be placed on top of it and undone with undo().
+     A matching pop() reverts everything done since the push().
+     Throws a RuntimeException if more than the undo depth
+     given to the constructor are open at once.
+    */
+    public void push() {
+        if (depth == pushSize.length) {
+            throw new RuntimeException("Undo stack overflow "+depth);
+        }
+        pushSize[depth] = journalSize;
+        pushBase[depth] = journalBase;
+        pushCommitted[depth] = committed;
+        depth++;
+        journalBase = journalSize;
+        committed = true;
+    }
+
+
+    /**
+     Closes the innermost undo level opened by push(), reverting
+     the board to its state at the time of the push(). Any
+     place() that was pending at the push() is pending again,
+     so it can be undone with undo() or kept with commit().
+    */
+    public void pop() {
+        if (depth == 0) {
+            throw new RuntimeException("Undo stack underflow");
+        }
+        depth--;
+        rollback(pushSize[depth]);
+        journalBase = pushBase[depth];
+        committed = pushCommitted[depth];
+        sanityCheck();
+    }
+
+
+    /**
+     Returns the number of push() levels currently open.
+    */
+    public int getUndoDepth() {
+        return depth;
+    }
+
+
+    /**
+     Returns the number of push() levels the board supports,
+     the undoDepth given to the constructor.
+    */
+    public int getMaxUndoDepth() {
+        return pushSize.length;
+    }
+
+
+    /**
+     Returns the length of the int[] used by saveState().
+    */
+    public int getStateSize() {
+        return height + width + 1;
+    }
+
+
+    /**
+     Copies the rows, column heights and max height into
+     state[0..getStateSize()-1]. The board should be in the
+     committed state.
+    */
+    public void saveState(int[] state) {
+        System.arraycopy(rows, 0, state, 0, height);
+        System.arraycopy(heights, 0, state, height, width);
+        state[height + width] = maxHeight;
+    }
+
+
+    /**
+     Puts the board back in a state saved by saveState() on a board
+     of the same size, and commits. Only the rows and heights that
+     differ are written, so tracked features stay up to date.
+     The board should be in the committed state. Inside a push(),
+     the matching pop() reverts the restore like any other change.
+    */
+    public void restoreState(int[] state) {
+        for (int y = 0; y < height; y++) {
+            setRow(y, state[y]);
+        }
+        for (int x = 0; x < width; x++) {
+            setHeight(x, state[height + x]);
+        }
+        setMaxHeight(state[height + width]);
+        commit();
+    }
+
+
+    // replays the journal backwards down to the given size
+    private void rollback(int size) {
+        while (journalSize > size) {
+            int old = journal[--journalSize];
+            int what = journal[--journalSize];
+            int index = what & J_INDEX;
+            switch (what & ~J_INDEX) {
+                case J_ROW: writeRow(index, old); break;
+                case J_HEIGHT: writeHeight(index, old); break;
+                default: maxHeight = old; break;
+            }
+        }
+    }
     
     
     /**
      Puts the board in the committed state.
+     Inside a push(), the changes are kept only until the matching pop().
      See the overview docs.
     */
     public void commit() {
         committed = true;
+        if (depth == 0) {
+            journalSize = 0;
+        }
+        journalBase = journalSize;
         sanityCheck();
     }
 }
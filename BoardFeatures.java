@@ -0,0 +1,204 @@
+// BoardFeatures.java
+
+/**
+ Computes the 11 board features rated by LameBrain in a single
+ column-major pass over the board's row bitmasks.
+
+ <p>The values are exactly the ones LameBrain has always used --
+ including the integer-divided average height and the way the
+ border counts as filled for wells -- so tuned weights stay valid.
+ The features are written into a caller-supplied array, indexed
+ by the constants below, and nothing is allocated per call.
+ A BoardFeatures object keeps a little scratch space, so each
+ thread should use its own. For a board that tracks its features
+ the pass reads the tracked ones and scans for the rest.
+*/
+public final class BoardFeatures {
+    public static final int HOLES = 0;
+    public static final int MAX_HEIGHT = 1;
+    public static final int AVERAGE_HEIGHT = 2;
+    public static final int BUMPINESS = 3;
+    public static final int COMPLETE_LINES = 4;
+    public static final int ROW_TRANSITIONS = 5;
+    public static final int COLUMN_TRANSITIONS = 6;
+    public static final int WELLS = 7;
+    public static final int FILLED_ABOVE_HOLES = 8;
+    public static final int ROWS_WITH_HOLES = 9;
+    public static final int HEIGHT_DIFF = 10;
+
+    // number of features
+    public static final int COUNT = 11;
+
+    // scratch: rowHasHole[y] is true if row y has a hole in some column
+    private boolean[] rowHasHole = new boolean[0];
+
+
+    /**
+     Computes the features of the given board into
+     out[0..COUNT-1].
+    */
+    public void extract(Board board, double[] out) {
+        final int width = board.getWidth();
+        final int height = board.getHeight();
+        final int gridHeight = height + 2; // rows above this read as filled
+        final int maxHeight = board.getMaxHeight();
+
+        if (board.isTrackingFeatures() && maxHeight <= height) {
+            extractTracked(board, out);
+            return;
+        }
+
+        if (rowHasHole.length < maxHeight) {
+            rowHasHole = new boolean[gridHeight];
+        }
+
+        int sumHeight = 0;
+        int minHeight = height;
+        int holes = 0;
+        int bumpiness = 0;
+        int rowTransitions = 0;
+        int columnTransitions = 0;
+        int wells = 0;
+        int filledAboveHoles = 0;
+        int prevHeight = 0;
+
+        for (int x = 0; x < width; x++) {
+            final int colHeight = board.getColumnHeight(x);
+            sumHeight += colHeight;
+            if (colHeight < minHeight) {
+                minHeight = colHeight;
+            }
+            if (x > 0) {
+                bumpiness += Math.abs(colHeight - prevHeight);
+            }
+            prevHeight = colHeight;
+
+            int topHole = -1;       // y of the highest hole in this column
+            int below = 0;          // the row under y
+            int row = board.getRow(0);
+            for (int y = 0; y < maxHeight; y++) {
+                // the border counts as filled on both sides
+                final boolean left = (x == 0) || (row >>> (x - 1) & 1) != 0;
+                final boolean right = (x == width - 1) || (row >>> (x + 1) & 1) != 0;
+                final int above = (y + 1 < gridHeight) ? board.getRow(y + 1) : -1;
+
+                if (y < colHeight) {
+                    if ((row >>> x & 1) != 0) {
+                        if (!left) rowTransitions++;
+                        if (!right) rowTransitions++;
+                        if (y > 0 && (below >>> x & 1) == 0) columnTransitions++;
+                        if (y < height - 1 && (above >>> x & 1) == 0) columnTransitions++;
+                    }
+                    else {
+                        // empty below the column height -- a hole
+                        holes++;
+                        rowHasHole[y] = true;
+                        topHole = y;
+                    }
+                }
+                else {
+                    // empty cell above the column -- count the wells
+                    if (x == 0 && right) wells++;
+                    if (x > 0 && left && right) wells++;
+                    if (x == width - 1 && left && (above >>> x & 1) == 0) wells++;
+                }
+                below = row;
+                row = above;
+            }
+
+            // the cells between the highest hole and the top are all filled
+            if (topHole >= 0) {
+                filledAboveHoles += colHeight - 1 - topHole;
+            }
+        }
+
+        int completeLines = 0;
+        int rowsWithHoles = 0;
+        for (int y = 0; y < maxHeight; y++) {
+            if (rowHasHole[y]) {
+                rowsWithHoles++;
+                rowHasHole[y] = false;
+            }
+            if (board.getRowWidth(y) == width) {
+                completeLines++;
+            }
+        }
+
+        out[HOLES] = holes;
+        out[MAX_HEIGHT] = maxHeight;
+        out[AVERAGE_HEIGHT] = sumHeight / width;
+        out[BUMPINESS] = bumpiness;
+        out[COMPLETE_LINES] = completeLines;
+        out[ROW_TRANSITIONS] = rowTransitions;
+        out[COLUMN_TRANSITIONS] = columnTransitions;
+        out[WELLS] = wells;
+        out[FILLED_ABOVE_HOLES] = filledAboveHoles;
+        out[ROWS_WITH_HOLES] = rowsWithHoles;
+        out[HEIGHT_DIFF] = Math.abs(maxHeight - minHeight);
+    }
+
+
+    /**
+     The same features for a board that tracks its own: holes,
+     heights, bumpiness and the transitions come from the Board
+     getters, and the rest is worked out a whole row mask at a time
+     from the top down instead of cell by cell.
+    */
+    private void extractTracked(Board board, double[] out) {
+        final int width = board.getWidth();
+        final int gridHeight = board.getHeight() + 2;
+        final int maxHeight = board.getMaxHeight();
+        final int full = (width == 32) ? -1 : (1 << width) - 1;
+        final int last = 1 << (width - 1);
+
+        int minHeight = board.getHeight();
+        for (int x = 0; x < width; x++) {
+            minHeight = Math.min(minHeight, board.getColumnHeight(x));
+        }
+
+        int covered = 0;    // columns with a block at or above y
+        int seen = 0;       // columns whose highest hole is already found
+        int wells = 0;
+        int filledAboveHoles = 0;
+        int rowsWithHoles = 0;
+        int completeLines = 0;
+        for (int y = maxHeight - 1; y >= 0; y--) {
+            final int row = board.getRow(y);
+            final int above = (y + 1 < gridHeight) ? board.getRow(y + 1) : -1;
+            covered |= row;
+
+            int holes = covered & ~row;
+            if (holes != 0) {
+                rowsWithHoles++;
+                int top = holes & ~seen;
+                seen |= top;
+                while (top != 0) {
+                    int x = Integer.numberOfTrailingZeros(top);
+                    filledAboveHoles += board.getColumnHeight(x) - 1 - y;
+                    top &= top - 1;
+                }
+            }
+
+            // empty cells above their column, walls counting as filled
+            final int open = full & ~covered;
+            final int left = (row << 1) | 1;
+            final int right = (row >>> 1) | last;
+            wells += Integer.bitCount(open & left & right);
+            if ((open & left & last) != 0 && (above & last) == 0) wells++;
+
+            if (row == full) completeLines++;
+        }
+
+        out[HOLES] = board.getHoles();
+        out[MAX_HEIGHT] = maxHeight;
+        out[AVERAGE_HEIGHT] = board.getAggregateHeight() / width;
+        out[BUMPINESS] = board.getBumpiness();
+        out[COMPLETE_LINES] = completeLines;
+        out[ROW_TRANSITIONS] = board.getRowTransitions();
+        out[COLUMN_TRANSITIONS] = board.getColumnTransitions();
+        out[WELLS] = wells;
+        out[FILLED_ABOVE_HOLES] = filledAboveHoles;
+        out[ROWS_WITH_HOLES] = rowsWithHoles;
+        out[HEIGHT_DIFF] = Math.abs(maxHeight - minHeight);
+    }
+}
@@ -0,0 +1,291 @@
+//package org.gandhim.pso;
+
+// CMA-ES, the covariance matrix adaptation evolution strategy, as an
+// Optimizer beside PSOProcess. every generation it samples lambda points
+// from a multivariate normal distribution, evaluates them in parallel on a
+// work-stealing pool (see setPool()), and moves the mean towards the best mu of them while
+// adapting the step size and the covariance to the shape of the landscape.
+// on a noisy 11 dimensional problem it usually needs far fewer
+// evaluations than the swarm. this follows the standard (mu/mu_w, lambda)
+// algorithm from Hansen's tutorial, with the default parameters; the
+// covariance is decomposed with Jacobi rotations, which is plenty for
+// a few dozen dimensions. the generation number is passed to the fitness
+// as the iteration, so GameFitness scores each generation on common seeds.
+// the best single sample is likely just lucky on a noisy fitness, so at the
+// end it and the final mean are scored again on the seeds of one more
+// generation, and the better of the two is returned
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class CMAES implements Optimizer {
+	private final double[] start;
+	private final double initialSigma;
+	private ForkJoinPool pool; // from setPool(), or made for each run
+	private boolean verbose = true;
+
+	// starts the search distribution at start with step size sigma
+	public CMAES(double[] start, double sigma) {
+		this.start = start;
+		this.initialSigma = sigma;
+	}
+
+	public double[] optimize(FitnessFunction fitness, int dimension, int budget, long seed) {
+		if(pool != null) {
+			return search(pool, fitness, dimension, budget, seed);
+		}
+		ForkJoinPool own = new ForkJoinPool(); // one worker per core
+		try {
+			return search(own, fitness, dimension, budget, seed);
+		} finally {
+			own.shutdown();
+		}
+	}
+
+	private double[] search(ForkJoinPool pool, final FitnessFunction fitness, int dimension, int budget, long seed) {
+		final int n = dimension;
+		Random random = new Random(seed);
+
+		// strategy parameters
+		final int lambda = 4 + (int) (3 * Math.log(n));
+		int mu = lambda / 2;
+		double[] w = new double[mu];
+		double sum = 0;
+		for(int i=0; i<mu; i++) {
+			w[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+			sum += w[i];
+		}
+		double sumSquares = 0;
+		for(int i=0; i<mu; i++) {
+			w[i] /= sum;
+			sumSquares += w[i] * w[i];
+		}
+		double mueff = 1 / sumSquares;
+		double cc = (4 + mueff / n) / (n + 4 + 2 * mueff / n);
+		double cs = (mueff + 2) / (n + mueff + 5);
+		double c1 = 2 / ((n + 1.3) * (n + 1.3) + mueff);
+		double cmu = Math.min(1 - c1, 2 * (mueff - 2 + 1 / mueff) / ((n + 2) * (n + 2) + mueff));
+		double damps = 1 + 2 * Math.max(0, Math.sqrt((mueff - 1) / (n + 1)) - 1) + cs;
+		double chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21.0 * n * n));
+
+		// state
+		double sigma = initialSigma;
+		double[] mean = new double[n];
+		for(int d=0; d<n; d++) {
+			mean[d] = (d < start.length) ? start[d] : 0;
+		}
+		double[] oldMean = new double[n];
+		double[] pc = new double[n];
+		double[] ps = new double[n];
+		double[][] c = new double[n][n];
+		double[][] b = new double[n][n];
+		double[] diag = new double[n]; // square roots of the eigenvalues of c
+		for(int d=0; d<n; d++) {
+			c[d][d] = 1;
+			b[d][d] = 1;
+			diag[d] = 1;
+		}
+		final double[][] x = new double[lambda][n];
+		double[][] z = new double[lambda][n];
+		final double[] values = new double[lambda];
+		Integer[] order = new Integer[lambda];
+		double[] yw = new double[n];
+		double[] temp = new double[n];
+
+		double[] best = mean.clone();
+		double bestValue = Double.POSITIVE_INFINITY;
+
+		// two evaluations are kept back for the final choice
+		int evaluations = 0;
+		int generation;
+		for(generation = 0; evaluations + lambda <= Math.max(budget - 2, lambda); generation++) {
+			// sample x = mean + sigma * B * D * z
+			for(int k=0; k<lambda; k++) {
+				for(int d=0; d<n; d++) {
+					z[k][d] = random.nextGaussian();
+				}
+				for(int i=0; i<n; i++) {
+					double v = 0;
+					for(int j=0; j<n; j++) {
+						v += b[i][j] * diag[j] * z[k][j];
+					}
+					x[k][i] = mean[i] + sigma * v;
+				}
+			}
+
+			// evaluate the population on the pool
+			final int iteration = generation;
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for(int k=0; k<lambda; k++) {
+				final int index = k;
+				tasks.add(pool.submit(new Runnable() {
+					public void run() {
+						values[index] = fitness.evaluate(x[index].clone(), iteration);
+					}
+				}));
+			}
+			for(ForkJoinTask<?> task : tasks) {
+				task.join();
+			}
+			evaluations += lambda;
+
+			// rank them, best first
+			for(int k=0; k<lambda; k++) {
+				order[k] = k;
+			}
+			Arrays.sort(order, (p, q) -> Double.compare(values[p], values[q]));
+			if(values[order[0]] < bestValue) {
+				bestValue = values[order[0]];
+				System.arraycopy(x[order[0]], 0, best, 0, n);
+			}
+
+			// move the mean to the weighted best mu
+			System.arraycopy(mean, 0, oldMean, 0, n);
+			for(int d=0; d<n; d++) {
+				double v = 0;
+				for(int i=0; i<mu; i++) {
+					v += w[i] * x[order[i]][d];
+				}
+				mean[d] = v;
+				yw[d] = (mean[d] - oldMean[d]) / sigma;
+			}
+
+			// step size path, ps uses C^-1/2 * yw = B * D^-1 * B^T * yw
+			for(int j=0; j<n; j++) {
+				double v = 0;
+				for(int i=0; i<n; i++) {
+					v += b[i][j] * yw[i];
+				}
+				temp[j] = v / diag[j];
+			}
+			double psNorm = 0;
+			for(int i=0; i<n; i++) {
+				double v = 0;
+				for(int j=0; j<n; j++) {
+					v += b[i][j] * temp[j];
+				}
+				ps[i] = (1 - cs) * ps[i] + Math.sqrt(cs * (2 - cs) * mueff) * v;
+				psNorm += ps[i] * ps[i];
+			}
+			psNorm = Math.sqrt(psNorm);
+			boolean hsig = psNorm / Math.sqrt(1 - Math.pow(1 - cs, 2 * (generation + 1))) / chiN
+					< 1.4 + 2.0 / (n + 1);
+
+			// covariance path and matrix
+			for(int d=0; d<n; d++) {
+				pc[d] = (1 - cc) * pc[d] + (hsig ? Math.sqrt(cc * (2 - cc) * mueff) * yw[d] : 0);
+			}
+			double oldWeight = 1 - c1 - cmu + (hsig ? 0 : c1 * cc * (2 - cc));
+			for(int i=0; i<n; i++) {
+				for(int j=0; j<=i; j++) {
+					double rankMu = 0;
+					for(int k=0; k<mu; k++) {
+						double[] xk = x[order[k]];
+						rankMu += w[k] * (xk[i] - oldMean[i]) * (xk[j] - oldMean[j]);
+					}
+					c[i][j] = oldWeight * c[i][j] + c1 * pc[i] * pc[j] + cmu * rankMu / (sigma * sigma);
+					c[j][i] = c[i][j];
+				}
+			}
+
+			sigma *= Math.exp((cs / damps) * (psNorm / chiN - 1));
+
+			// C = B * D^2 * B^T
+			eigen(c, b, diag);
+			for(int d=0; d<n; d++) {
+				diag[d] = Math.sqrt(Math.max(diag[d], 1e-20));
+			}
+
+			if(verbose) {
+				System.out.println("GENERATION " + generation + ": best " + values[order[0]]
+						+ ", sigma " + sigma + ", best so far " + bestValue);
+			}
+		}
+
+		// the mean or the best sample, whichever does better on fresh seeds
+		double meanValue = fitness.evaluate(mean.clone(), generation);
+		bestValue = fitness.evaluate(best.clone(), generation);
+		evaluations += 2;
+		double[] result = best;
+		if(meanValue <= bestValue) {
+			result = mean;
+			bestValue = meanValue;
+		}
+
+		if(verbose) {
+			System.out.println("\nSolution found after " + evaluations + " evaluations, the solutions is:");
+			PSOProcess.printWeights(result);
+			System.out.println("     Final_Score: " + bestValue);
+		}
+		return result;
+	}
+
+	// eigenvalues and eigenvectors of the symmetric matrix a by cyclic
+	// Jacobi rotations: the columns of vectors are the eigenvectors and
+	// values the matching eigenvalues. a is not changed
+	static void eigen(double[][] a, double[][] vectors, double[] values) {
+		int n = a.length;
+		double[][] m = new double[n][];
+		for(int i=0; i<n; i++) {
+			m[i] = a[i].clone();
+			Arrays.fill(vectors[i], 0);
+			vectors[i][i] = 1;
+		}
+		for(int sweep=0; sweep<100; sweep++) {
+			double off = 0;
+			for(int p=0; p<n; p++) {
+				for(int q=p+1; q<n; q++) {
+					off += m[p][q] * m[p][q];
+				}
+			}
+			if(off < 1e-30) {
+				break;
+			}
+			for(int p=0; p<n; p++) {
+				for(int q=p+1; q<n; q++) {
+					if(m[p][q] == 0) {
+						continue;
+					}
+					// the rotation that zeroes m[p][q]
+					double theta = (m[q][q] - m[p][p]) / (2 * m[p][q]);
+					double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+					if(theta == 0) {
+						t = 1;
+					}
+					double cos = 1 / Math.sqrt(t * t + 1);
+					double sin = t * cos;
+					for(int k=0; k<n; k++) {
+						double mkp = m[k][p];
+						double mkq = m[k][q];
+						m[k][p] = cos * mkp - sin * mkq;
+						m[k][q] = sin * mkp + cos * mkq;
+					}
+					for(int k=0; k<n; k++) {
+						double mpk = m[p][k];
+						double mqk = m[q][k];
+						m[p][k] = cos * mpk - sin * mqk;
+						m[q][k] = sin * mpk + cos * mqk;
+					}
+					for(int k=0; k<n; k++) {
+						double vkp = vectors[k][p];
+						double vkq = vectors[k][q];
+						vectors[k][p] = cos * vkp - sin * vkq;
+						vectors[k][q] = sin * vkp + cos * vkq;
+					}
+				}
+			}
+		}
+		for(int i=0; i<n; i++) {
+			values[i] = m[i][i];
+		}
+	}
+
+	// evaluates on the given pool, which the caller shuts down
+	public void setPool(ForkJoinPool pool) { this.pool = pool; }
+
+	public void setVerbose(boolean verbose) { this.verbose = verbose; }
+}
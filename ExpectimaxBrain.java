@@ -0,0 +1,202 @@
+// ExpectimaxBrain.java
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ A LameBrain that plans for the unknown next piece.
+ New pieces are drawn uniformly from the 7 pieces, so instead of
+ rating the board right after the current piece, it rates each
+ move by the average, over all 7 possible next pieces, of the
+ best board that piece can then make -- an expectimax search
+ with "chance" nodes between the moves. The depth setting is the
+ number of unknown pieces looked at: 0 plays like LameBrain,
+ 1 averages over the next piece, 2 over the two after that.
+
+ <p>The search runs in place on the board it is given, with
+ push()/pop() around each level. A board without a free push()
+ level for each unknown piece is copied into a board of the brain's
+ own that has enough. Chance node values are memoized
+ by the board's Zobrist hash for one bestMove(), so a position
+ reached by two orders of moves is only searched once.
+ The brain counts the boards it places and the time it spends,
+ for getNodesPerSecond().
+
+ <p>The moves of the current piece go through LameBrain.search(),
+ so with setPool() they are searched in parallel; each worker
+ thread keeps its own memo table.
+*/
+public class ExpectimaxBrain extends LameBrain {
+    public static final int DEFAULT_DEPTH = 1;
+
+    // the value of a chance node where the piece doesn't fit anywhere
+    private static final double DEAD = 1e10;
+
+    // memo table, open addressing; an entry is live if its stamp
+    // matches the current search, so clearing it is free
+    private static final int MEMO_SIZE = 1 << 16;
+    private static final int MEMO_PROBES = 8;
+    private static final class Memo {
+        final long[] keys = new long[MEMO_SIZE];
+        final double[] values = new double[MEMO_SIZE];
+        final int[] stamps = new int[MEMO_SIZE];
+    }
+    private final Memo serial = new Memo();
+    private final ThreadLocal<Memo> memos = ThreadLocal.withInitial(Memo::new);
+    private int stamp;
+
+    private int depth;
+    private final Piece[] pieces = Piece.getPieces();
+
+    // the board searched on when the caller's has too few push() levels
+    private Board deep;
+    private int[] deepState;
+
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder memoHits = new LongAdder();
+    private long nanos;
+
+    public ExpectimaxBrain() {
+        this(DEFAULT_DEPTH);
+    }
+
+    public ExpectimaxBrain(int depth) {
+        super();
+        setDepth(depth);
+    }
+
+    /**
+     * Sets how many unknown pieces to average over. Each level needs
+     * one of the board's push() levels; deeper searches run on a copy
+     * of the board with enough of them.
+     */
+    public void setDepth(int depth) {
+        if (depth < 0) {
+            throw new RuntimeException("Bad depth " + depth);
+        }
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the move with the lowest expected score.
+     * See the Brain interface for details.
+     */
+    public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        long startTime = System.nanoTime();
+        stamp++;
+        move = search(searchBoard(board), piece, NO_PREVIEW, limitHeight, move);
+        nanos += System.nanoTime() - startTime;
+        return move;
+    }
+
+    /**
+     * Scores a move of the current piece by the chance levels below it.
+     */
+    protected double scorePlacement(Board board, Piece[] preview, int limitHeight) {
+        nodes.increment();
+        return (depth == 0) ? rateBoard(board) : chance(board, depth, limitHeight);
+    }
+
+    // the board itself if it has a push() level free for every unknown
+    // piece, else a copy of it in a board with enough levels
+    private Board searchBoard(Board board) {
+        if (depth <= board.getMaxUndoDepth() - board.getUndoDepth()) {
+            return board;
+        }
+        if (deep == null || deep.getWidth() != board.getWidth()
+            || deep.getHeight() != board.getHeight() || deep.getMaxUndoDepth() < depth) {
+            deep = new Board(board.getWidth(), board.getHeight(), depth);
+            deepState = new int[board.getStateSize()];
+        }
+        if (deep.isTrackingFeatures() != board.isTrackingFeatures()) {
+            deep.setTrackFeatures(board.isTrackingFeatures());
+        }
+        board.saveState(deepState);
+        deep.restoreState(deepState);
+        return deep;
+    }
+
+    // the average over the 7 pieces of the best score each can reach,
+    // with levels-1 more chance levels below. The board holds a pending
+    // place(), which is kept with push() while the pieces are tried
+    private double chance(Board board, int levels, int limitHeight) {
+        Memo memo = (getPool() == null) ? serial : memos.get();
+        long key = board.getHash() * 31 + levels;
+        int slot = find(memo, key);
+        if (memo.stamps[slot] == stamp && memo.keys[slot] == key) {
+            memoHits.increment();
+            return memo.values[slot];
+        }
+
+        PlacementTable table = PlacementTable.forWidth(board.getWidth());
+        board.push();
+        double sum = 0;
+        for (int p = 0; p < pieces.length; p++) {
+            double best = DEAD;
+            PlacementTable.Placement[] placements = table.getPlacements(pieces[p]);
+            for (int i = 0; i < placements.length; i++) {
+                PlacementTable.Placement placement = placements[i];
+                int y = board.dropHeight(placement);
+                if (y >= limitHeight - placement.piece.getHeight() + 1) continue;
+
+                int result = board.place(placement, y);
+                if (result <= Board.PLACE_ROW_FILLED) {
+                    if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                    nodes.increment();
+                    double score = (levels == 1) ? rateBoard(board) : chance(board, levels - 1, limitHeight);
+                    if (score < best) best = score;
+                }
+                board.undo();
+            }
+            sum += best;
+        }
+        board.pop();
+
+        double value = sum / pieces.length;
+        memo.keys[slot] = key;
+        memo.values[slot] = value;
+        memo.stamps[slot] = stamp;
+        return value;
+    }
+
+    // the slot holding key, or else the first stale slot in its probe
+    // run, or else the last slot of the run (which gets overwritten)
+    private int find(Memo memo, long key) {
+        int slot = (int) (key ^ (key >>> 32)) & (MEMO_SIZE - 1);
+        for (int i = 0; i < MEMO_PROBES; i++) {
+            int s = (slot + i) & (MEMO_SIZE - 1);
+            if (memo.stamps[s] != stamp || memo.keys[s] == key) return s;
+        }
+        return (slot + MEMO_PROBES - 1) & (MEMO_SIZE - 1);
+    }
+
+    /**
+     * Returns the number of boards placed so far.
+     */
+    public long getNodesExpanded() {
+        return nodes.sum();
+    }
+
+    /**
+     * Returns the number of chance nodes answered from the memo.
+     */
+    public long getMemoHits() {
+        return memoHits.sum();
+    }
+
+    /**
+     * Returns the boards placed per second of search so far.
+     */
+    public double getNodesPerSecond() {
+        return (nanos == 0) ? 0 : nodes.sum() * 1e9 / nanos;
+    }
+
+    public void resetStats() {
+        nodes.reset();
+        memoHits.reset();
+        nanos = 0;
+    }
+}
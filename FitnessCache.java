@@ -0,0 +1,89 @@
+//package org.gandhim.pso;
+
+// remembers fitness values so particles that land on (nearly) the same
+// weights in the same iteration don't play the same games again.
+// the weights are rounded to a multiple of the resolution, and the key is
+// the rounded weights plus the iteration, which picks the seed set in
+// GameFitness. the cache holds at most maxSize values and drops the least
+// recently used one when it's full. evaluate(weights), which has no fixed
+// seed set, is passed straight through.
+// two threads asking for the same new key at once will both evaluate it
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FitnessCache implements FitnessFunction {
+	private final FitnessFunction fitness;
+	private final double resolution;
+	private final Map<Key, Double> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public FitnessCache(FitnessFunction fitness, double resolution, final int maxSize) {
+		this.fitness = fitness;
+		this.resolution = resolution;
+		this.cache = new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public double evaluate(double[] weights) {
+		return fitness.evaluate(weights);
+	}
+
+	public double evaluate(double[] weights, int iteration) {
+		Key key = new Key(weights, resolution, iteration);
+		Double value;
+		synchronized (cache) {
+			value = cache.get(key);
+		}
+		if (value != null) {
+			hits.incrementAndGet();
+			return value;
+		}
+		misses.incrementAndGet();
+		double result = fitness.evaluate(weights, iteration);
+		synchronized (cache) {
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	public long getHits() { return hits.get(); }
+
+	public long getMisses() { return misses.get(); }
+
+	public String toString() {
+		return "Fitness cache: " + hits.get() + " hits, " + misses.get() + " misses";
+	}
+
+	// the rounded weights and the iteration
+	private static final class Key {
+		private final long[] cells;
+		private final int iteration;
+		private final int hash;
+
+		Key(double[] weights, double resolution, int iteration) {
+			cells = new long[weights.length];
+			for (int i = 0; i < weights.length; i++) {
+				cells[i] = Math.round(weights[i] / resolution);
+			}
+			this.iteration = iteration;
+			hash = 31 * Arrays.hashCode(cells) + iteration;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) return false;
+			Key key = (Key) other;
+			return iteration == key.iteration && Arrays.equals(cells, key.cells);
+		}
+	}
+}
@@ -0,0 +1,17 @@
+//package org.gandhim.pso;
+
+// the function the PSO minimizes: maps a particle's location
+// (a weight vector) to a fitness value, lower is better.
+// implementations must be safe to call from several threads at once,
+// since the whole swarm is evaluated in parallel
+// PSOProcess calls the two argument version with the iteration the
+// evaluation belongs to, so a noisy fitness can score every particle of an
+// iteration under the same conditions (common random numbers)
+
+public interface FitnessFunction {
+	double evaluate(double[] weights);
+
+	default double evaluate(double[] weights, int iteration) {
+		return evaluate(weights);
+	}
+}
@@ -0,0 +1,636 @@
+// GameEngine.java
+import java.util.*;
+
+/**
+GameEngine plays a game of tetris with no graphics at all.
+It holds the board, the current piece, the random piece source
+and the game-over logic, and optionally lets a Brain play.
+There is no javax.swing or java.awt dependency, so training runs
+can play games on a headless server.
+
+JTetris, JTetrisTrain and their brain subclasses are thin
+adapters over an engine -- JTetris drives it from a Swing timer
+and repaints through the Listener callbacks, while JTetrisTrain
+just calls run() to play each game to the end.
+
+@author Nick Parlante
+@version 1.0, March 1, 2001
+@author Eric Chown
+@version 2.0  October 4, 2017
+ */
+
+/*
+Implementation notes:
+-The "currentPiece" points to a piece that is
+currently falling, or is null when there is no piece.
+-tick() moves the current piece
+-a timer (or run()) calls tick(DOWN) periodically
+-keystrokes call tick with LEFT, RIGHT, etc.
+-Board.undo() is used to remove the piece from its
+old position and then Board.place() is used to install
+the piece in its new position.
+ */
+
+public class GameEngine {
+    // size of the board in blocks
+    public static final int WIDTH = 10;
+    public static final int HEIGHT = 20;
+
+    // Extra blocks at the top for pieces to start.
+    // If a piece is sticking up into this area
+    // when it has landed -- game over!
+    public static final int TOP_SPACE = 4;
+
+    public static final int ROTATE = 0;
+    public static final int LEFT = 1;
+    public static final int RIGHT = 2;
+    public static final int DROP = 3;
+    public static final int DOWN = 4;
+
+    public static final boolean OPTIMIZING = true;
+
+    /**
+    Receives the events a display needs to follow the game.
+    All the calls happen inside tick(), startGame() or stopGame().
+     */
+    public interface Listener {
+        /** The current piece moved; oldPiece is null for a new piece. */
+        void pieceMoved(Piece oldPiece, int oldX, int oldY, Piece piece, int x, int y);
+
+        /** Rows were filled or cleared -- the whole board should be redrawn. */
+        void boardChanged();
+
+        /** A new piece was added; count is the number of pieces so far. */
+        void pieceAdded(int count);
+
+        /** The game ended. */
+        void gameStopped();
+    }
+
+    // Board data structures
+    protected Board board;
+    protected Piece[] pieces;
+
+    // The current piece in play or null
+    protected Piece currentPiece;
+    protected int currentX;
+    protected int currentY;
+    protected boolean moved; // did the player move the piece
+
+    // The piece we're thinking about playing
+    // -- set by computeNewPosition
+    protected Piece newPiece;
+    protected int newX;
+    protected int newY;
+
+    // State of the game
+    protected boolean gameOn; // true if we are playing
+    protected int count;  // how many pieces played so far
+    protected int gamePieces; // how many pieces picked this game
+    protected long startTime; // used to measure elapsed time
+    protected Random random; // the random generator for new pieces
+    protected int gamesPlayed;  // how many games we've played (used for optimizing)
+
+    // When this is true, plays a fixed sequence of testLimit pieces
+    protected boolean testMode = false;
+    protected int testLimit;
+
+    // The brain, when one is playing
+    protected Brain brain;
+    protected boolean brainActive;
+    protected boolean drop;
+    protected int previousCount;
+    protected Brain.Move best;
+    protected boolean hardDrop; // run() places the brain's moves directly
+
+    // The pieces coming after the current one, known in advance.
+    // upcoming[0..queued-1] in order; previewSize of them are shown
+    protected int previewSize;
+    protected Piece[] upcoming = new Piece[0];
+    protected int queued;
+    protected Piece[] preview = new Piece[0];
+
+    // The adversary picks bad pieces this percentage of the time
+    protected Brain opponent;
+    protected int opponentPercent;
+
+    protected Listener listener;
+
+    /**
+    Creates an engine that plays a fixed sequence of
+    testLimit pieces in test mode.
+     */
+    public GameEngine(int testLimit) {
+        this.testLimit = testLimit;
+        gameOn = false;
+        gamesPlayed = 0;
+        drop = true;
+
+        pieces = Piece.getPieces();
+        board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        board.setTrackFeatures(true);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setTestMode(boolean testMode) {
+        this.testMode = testMode;
+    }
+
+    public void setBrain(Brain brain) {
+        this.brain = brain;
+    }
+
+    public Brain getBrain() {
+        return brain;
+    }
+
+    public void setBrainActive(boolean brainActive) {
+        this.brainActive = brainActive;
+    }
+
+    public boolean isBrainActive() {
+        return brainActive;
+    }
+
+    /**
+    Sets whether the brain drops the piece once it is lined up,
+    rather than letting it fall a row at a time.
+     */
+    public void setDrop(boolean drop) {
+        this.drop = drop;
+    }
+
+    public boolean getDrop() {
+        return drop;
+    }
+
+    /**
+    Sets the fast simulation mode. When it is on and the brain is
+    active, run() puts each piece straight at the brain's chosen
+    move with hardDrop() instead of walking it down a row per tick.
+     */
+    public void setHardDrop(boolean hardDrop) {
+        this.hardDrop = hardDrop;
+    }
+
+    public boolean getHardDrop() {
+        return hardDrop;
+    }
+
+    /**
+    Sets how many of the upcoming pieces are known in advance.
+    A PreviewBrain is shown them when it picks its move; the pieces
+    themselves come in the same order whatever the preview size.
+     */
+    public void setPreviewSize(int previewSize) {
+        this.previewSize = previewSize;
+        upcoming = new Piece[previewSize];
+        preview = new Piece[previewSize];
+        queued = 0;
+    }
+
+    public int getPreviewSize() {
+        return previewSize;
+    }
+
+    /**
+    Returns the upcoming pieces, next one first. The array
+    is reused, so the caller should not keep it.
+     */
+    public Piece[] getPreview() {
+        System.arraycopy(upcoming, 0, preview, 0, previewSize);
+        return preview;
+    }
+
+    public void setOpponent(Brain opponent) {
+        this.opponent = opponent;
+    }
+
+    /**
+    Sets the percentage of pieces picked by the adversary.
+     */
+    public void setOpponentPercent(int percent) {
+        opponentPercent = percent;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public boolean isGameOn() {
+        return gameOn;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+    Returns the number of pieces played in the current (or last) game.
+     */
+    public int getGamePieces() {
+        return gamePieces;
+    }
+
+    public int getGamesPlayed() {
+        return gamesPlayed;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+    Sets the internal state so the game is happening.
+    The caller then calls tick() -- see run().
+     */
+    public void startGame() {
+        if (testMode)
+            random = new Random(0); // same seq every time
+        else
+            random = new Random(); // diff seq each game
+        beginGame();
+    }
+
+    /**
+    Like startGame(), but the pieces come from a generator
+    with the given seed, so the game can be replayed exactly.
+     */
+    public void startGame(long seed) {
+        random = new Random(seed);
+        beginGame();
+    }
+
+    private void beginGame() {
+        // cheap way to reset the board state
+        board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        // the brains rate the board from its tracked features
+        board.setTrackFeatures(true);
+
+        count = 0;
+        previousCount = 0;
+        gamePieces = 0;
+        queued = 0;
+        gameOn = true;
+
+        startTime = System.currentTimeMillis();
+        addNewPiece();
+    }
+
+    /**
+    Plays the game until it is over, moving the
+    current piece down one row per tick -- or a whole
+    piece at a time in hard drop mode.
+     */
+    public void run() {
+        boolean fast = hardDrop && brainActive && brain != null;
+        while (gameOn) {
+            if (fast) hardDrop();
+            else tick(DOWN);
+        }
+    }
+
+    /**
+    Asks the brain for its move and places the current piece
+    there directly, at its drop height, then clears rows and
+    adds the next piece -- the same end result as ticking the piece
+    down, without the row-by-row descent. If the brain has no
+    move the piece is dropped where it is.
+     */
+    public void hardDrop() {
+        if (!gameOn) return;
+
+        if (currentPiece != null) {
+            board.undo(); // remove the piece from its start position
+        }
+
+        Piece piece = currentPiece;
+        int x = currentX;
+        best = think();
+        previousCount = count;
+        if (best != null) {
+            piece = best.piece;
+            x = best.x;
+        }
+
+        int result = setCurrent(piece, x, board.dropHeight(piece, x));
+        if (result >= Board.PLACE_OUT_BOUNDS) {
+            // no room left to drop it
+            stopGame();
+            return;
+        }
+
+        if (board.clearRows()) {
+            if (listener != null) listener.boardChanged();
+        }
+
+        // if the board is too tall, we've lost
+        if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
+            stopGame();
+        }
+        // Otherwise add a new piece and keep playing
+        else {
+            addNewPiece();
+        }
+    }
+
+    // asks the brain where to put the current piece, showing
+    // a PreviewBrain the upcoming pieces
+    private Brain.Move think() {
+        if (previewSize > 0 && brain instanceof PreviewBrain) {
+            return ((PreviewBrain) brain).bestMove(board, currentPiece, getPreview(), HEIGHT, best);
+        }
+        return brain.bestMove(board, currentPiece, HEIGHT, best);
+    }
+
+    /**
+    Stops the game.
+     */
+    public void stopGame() {
+        gameOn = false;
+        gamesPlayed++;
+        if (listener != null) listener.gameStopped();
+    }
+
+    /**
+    Given a piece, tries to install that piece
+    into the board and set it to be the current piece.
+    If the placement is not possible, then the placement
+    is undone, and the board is not changed. The board
+    should be in the committed state when this is called.
+    Returns the same error code as Board.place().
+     */
+    public int setCurrent(Piece piece, int x, int y) {
+        int result = board.place(piece, x, y);
+
+        if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
+            Piece oldPiece = currentPiece;
+            int oldX = currentX;
+            int oldY = currentY;
+            currentPiece = piece;
+            currentX = x;
+            currentY = y;
+            if (listener != null) listener.pieceMoved(oldPiece, oldX, oldY, piece, x, y);
+        }
+        else {
+            board.undo();
+        }
+
+        return(result);
+    }
+
+    /**
+    Selects the next piece to use using the random generator
+    set in startGame(). Some of the time the adversary
+    picks the piece that is worst for the player instead.
+     */
+    public Piece pickNextPiece() {
+        int r = 101;
+        if (opponentPercent > 0 && !testMode)
+            r = Math.abs(random.nextInt()) % 100;
+        int pieceNum;
+        pieceNum = (int) (pieces.length * random.nextDouble());
+        long delta = (System.currentTimeMillis() - startTime)/10;
+
+        if (r < opponentPercent && (OPTIMIZING && (delta < 150 || r < 80)) ) {
+            double score = 1000000.0;
+            double best = 0.0;
+            Brain.Move mov;
+            Piece piece = pieces[0];
+            // feed all of the pieces to the adversary
+            board.commit();
+            mov = opponent.bestMove(board, piece, HEIGHT, null);
+            if (mov != null)
+                score = mov.score;
+            pieceNum = 0;
+            for (int i = 1; i < pieces.length; i++) {
+                piece = pieces[i];
+                opponent.bestMove(board, piece, HEIGHT, mov);
+                if (mov != null) {
+                    score = mov.score;
+                    if (score > best) {
+                        pieceNum = i;
+                        best = score;
+                    }
+                }
+            }
+        }
+
+        Piece piece  = pieces[pieceNum];
+
+        return(piece);
+    }
+
+    // takes the next piece off the preview queue, keeping
+    // previewSize pieces picked ahead
+    private Piece nextPiece() {
+        gamePieces++;
+        if (previewSize == 0) {
+            return pickNextPiece();
+        }
+        while (queued < previewSize) {
+            upcoming[queued++] = pickNextPiece();
+        }
+        Piece piece = upcoming[0];
+        System.arraycopy(upcoming, 1, upcoming, 0, previewSize - 1);
+        upcoming[previewSize - 1] = pickNextPiece();
+        return piece;
+    }
+
+    /**
+    Tries to add a new random at the top of the board.
+    Ends the game if it's not possible.
+     */
+    public void addNewPiece() {
+        count++;
+
+        if (testMode && count == testLimit+1) {
+            stopGame();
+            return;
+        }
+
+        Piece piece = nextPiece();
+
+        // Center it up at the top
+        int px = (board.getWidth() - piece.getWidth())/2;
+        int py = board.getHeight() - piece.getHeight();
+
+        // commit things the way they are
+        board.commit();
+        currentPiece = null;
+
+        // add the new piece to be in play
+        int result = setCurrent(piece, px, py);
+
+        // This probably never happens, since
+        // the blocks at the top allow space
+        // for new pieces to at least be added.
+        if (result>Board.PLACE_ROW_FILLED) {
+            stopGame();
+        }
+
+        if (listener != null) listener.pieceAdded(count);
+    }
+
+    /**
+    Figures a new position for the current piece
+    based on the given verb (LEFT, RIGHT, ...).
+    The board should be in the committed state --
+    i.e. the piece should not be in the board at the moment.
+    This is necessary so dropHeight() may be called without
+    the piece "hitting itself" on the way down.
+
+    Sets the ivars newX, newY, and newPiece to hold
+    what it thinks the new piece position should be.
+    (Storing an intermediate result like that in
+    ivars is a little tacky.)
+     */
+    public void computeNewPosition(int verb) {
+        // As a starting point, the new position is the same as the old
+        newPiece = currentPiece;
+        newX = currentX;
+        newY = currentY;
+
+        // Make changes based on the verb
+        switch (verb) {
+            case LEFT: newX--; break;
+
+            case RIGHT: newX++; break;
+
+            case ROTATE:
+            newPiece = newPiece.nextRotation();
+
+            // tricky: make the piece appear to rotate about its center
+            // can't just leave it at the same lower-left origin as the
+            // previous piece.
+            newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
+            newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
+            break;
+
+            case DOWN: newY--; break;
+
+            case DROP:
+            // note: if the piece were in the board, it would interfere here
+            newY = board.dropHeight(newPiece, newX);
+            break;
+
+            default:
+            throw new RuntimeException("Bad verb");
+        }
+
+    }
+
+    /**
+    Called to change the position of the current piece.
+    Each key press call this once with the verbs
+    LEFT RIGHT ROTATE DROP for the user moves,
+    and the timer calls it with the verb DOWN to move
+    the piece down one square.
+
+    Before this is called, the piece is at some location in the board.
+    This advances the piece to be at its next location.
+
+    When the brain is active, it first moves the piece one
+    step towards the brain's best move.
+     */
+    public void tick(int verb) {
+        if (!gameOn) return;
+
+        if (currentPiece != null) {
+            board.undo(); // remove the piece from its old position
+        }
+
+        boolean brainMoved = false;
+        boolean lost = false;
+        if (brainActive && brain != null) {
+            if (previousCount != count) {
+                previousCount = count;
+                // got a new piece - figure out where to put it
+                best = think();
+            }
+            if (best != null) {
+                // move towards ideal - we get one move and one rotation
+                int r;
+                if (!currentPiece.equals(best.piece)) {
+                    computeNewPosition(ROTATE);
+                    r = setCurrent(newPiece, newX, newY);
+                    if (r >= Board.PLACE_OUT_BOUNDS)
+                        lost = true;
+                    board.undo();
+                    brainMoved = true;
+                }
+                if (currentX > best.x) {
+                    computeNewPosition(LEFT);
+                    r = setCurrent(newPiece, newX, newY);
+                    if (r >= Board.PLACE_OUT_BOUNDS)
+                        lost = true;
+                    board.undo();
+                    brainMoved = true;
+                }
+                if (currentX < best.x) {
+                    computeNewPosition(RIGHT);
+                    r = setCurrent(newPiece, newX, newY);
+                    if (r >= Board.PLACE_OUT_BOUNDS)
+                        lost = true;
+                    board.undo();
+                    brainMoved = true;
+                }
+                if (!brainMoved && drop && !lost) {
+                    computeNewPosition(DROP);
+                    setCurrent(newPiece, newX, newY);
+                    board.undo();
+                }
+            }
+        }
+
+        // Sets the newXXX ivars
+        computeNewPosition(verb);
+
+        // try out the new position (rolls back if it doesn't work)
+        int result = setCurrent(newPiece, newX, newY);
+
+        // if row clearing is going to happen, draw the
+        // whole board so the green row shows up
+        if (result ==  Board.PLACE_ROW_FILLED && listener != null) listener.boardChanged();
+
+        boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
+
+        // if it didn't work, put it back the way it was
+        if (failed || lost) {
+            if (currentPiece != null) board.place(currentPiece, currentX, currentY);
+        }
+
+        /*
+        How to detect when a piece has landed:
+        if this move hits something on its DOWN verb,
+        and the previous verb was also DOWN (i.e. the player was not
+        still moving it),  then the previous position must be the correct
+        "landed" position, so we're done with the falling of this piece.
+        When the brain is playing, only its moves on this tick count.
+         */
+        boolean stillMoving = (brainActive && brain != null) ? brainMoved : moved;
+        if ((failed && verb==DOWN && !stillMoving) || lost) { // it's landed
+
+            if (board.clearRows()) {
+                // redraw to show the result of the row clearing
+                if (listener != null) listener.boardChanged();
+            }
+
+            // if the board is too tall, we've lost
+            if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
+                stopGame();
+            }
+            // Otherwise add a new piece and keep playing
+            else {
+                addNewPiece();
+            }
+        }
+
+        // Note if the player made a successful non-DOWN move --
+        // used to detect if the piece has landed on the next tick()
+        moved = (!failed && verb!=DOWN);
+    }
+}
@@ -0,0 +1,58 @@
+//package org.gandhim.pso;
+
+// scores a weight vector by playing real headless tetris games with a
+// LameBrain using those weights. the fitness is minus the average number
+// of pieces played, so the PSO minimizing it maximizes the pieces played
+// evaluate(weights, iteration) uses common random numbers: every particle
+// of an iteration plays the same seeded piece sequences, so the differences
+// between particles come from their weights and not from luck. a new set of
+// sequences is drawn for every iteration so the weights don't overfit them.
+// evaluate(weights) draws fresh sequences on every call
+
+import java.util.SplittableRandom;
+
+public class GameFitness implements FitnessFunction {
+	private final int games;
+	private final long seed;
+	private final SplittableRandom seeds;
+
+	public GameFitness(int games, long seed) {
+		this.games = games;
+		this.seed = seed;
+		this.seeds = new SplittableRandom(seed);
+	}
+
+	public double evaluate(double[] weights) {
+		GameEngine engine = TrialRunner.newEngine(new LameBrain(weights), true);
+		long total = 0;
+		for (int i = 0; i < games; i++) {
+			total += TrialRunner.playGame(engine, nextSeed());
+		}
+		return -((double) total) / games;
+	}
+
+	public double evaluate(double[] weights, int iteration) {
+		return evaluate(weights, getSeeds(iteration));
+	}
+
+	// plays one game per seed
+	public double evaluate(double[] weights, long[] gameSeeds) {
+		GameEngine engine = TrialRunner.newEngine(new LameBrain(weights), true);
+		long total = 0;
+		for (int i = 0; i < gameSeeds.length; i++) {
+			total += TrialRunner.playGame(engine, gameSeeds[i]);
+		}
+		return -((double) total) / gameSeeds.length;
+	}
+
+	// the piece sequence seeds shared by every particle of an iteration
+	public long[] getSeeds(int iteration) {
+		return TrialRunner.gameSeeds(seed + iteration, games);
+	}
+
+	private synchronized long nextSeed() {
+		return seeds.nextLong();
+	}
+
+	public int getGames() { return games; }
+}
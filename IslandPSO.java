@@ -0,0 +1,103 @@
+//package org.gandhim.pso;
+
+// the island model: runs several PSOProcess swarms at once, each on its
+// own thread, and every few iterations each island sends its global best
+// to the next island around a ring. the channels are lock-free queues,
+// so islands never wait on each other. all the islands evaluate their
+// particles on one shared work-stealing pool, keeping every core busy,
+// and the islands searching apart keeps the swarm from converging too early
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+public class IslandPSO {
+	private final PSOProcess[] islands;
+	private final double[][] results;
+	private volatile Throwable failure;
+	private ForkJoinPool pool; // from setPool(), or made for each run
+
+	public IslandPSO(FitnessFunction fitness, double[] weights, int islandCount, int migrationInterval) {
+		islands = new PSOProcess[islandCount];
+		results = new double[islandCount][];
+
+		// queue i carries migrants from island i-1 to island i
+		List<Queue<double[]>> queues = new ArrayList<Queue<double[]>>();
+		for(int i=0; i<islandCount; i++) {
+			queues.add(new ConcurrentLinkedQueue<double[]>());
+		}
+		for(int i=0; i<islandCount; i++) {
+			islands[i] = new PSOProcess(fitness, weights);
+			islands[i].setVerbose(false);
+			islands[i].setMigration(queues.get(i), queues.get((i + 1) % islandCount), migrationInterval);
+		}
+	}
+
+	// runs every island to the end and returns the best weights found
+	public double[] execute() {
+		ForkJoinPool shared = (pool != null) ? pool : new ForkJoinPool();
+		for(int i=0; i<islands.length; i++) {
+			islands[i].setPool(shared);
+		}
+		try {
+			return runIslands();
+		} finally {
+			if(shared != pool) {
+				shared.shutdown();
+			}
+		}
+	}
+
+	private double[] runIslands() {
+		Thread[] threads = new Thread[islands.length];
+		for(int i=0; i<islands.length; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						results[index] = islands[index].execute();
+					} catch (Throwable e) {
+						failure = e;
+					}
+				}
+			}, "island-" + i);
+			threads[i].start();
+		}
+		for(int i=0; i<threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for the islands", e);
+			}
+		}
+		// an island that died has no result, pass its failure on
+		Throwable cause = failure;
+		if(cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if(cause instanceof Error) {
+			throw (Error) cause;
+		}
+		if(cause != null) {
+			throw new RuntimeException("An island failed", cause);
+		}
+
+		int best = 0;
+		for(int i=0; i<islands.length; i++) {
+			System.out.println("ISLAND " + i + ": " + islands[i].getGBest());
+			if(islands[i].getGBest() < islands[best].getGBest()) {
+				best = i;
+			}
+		}
+		System.out.println("\nBest island " + best + ", the solution is:");
+		PSOProcess.printWeights(results[best]);
+		System.out.println("     Final_Score: " + islands[best].getGBest());
+		return results[best];
+	}
+
+	// evaluates every island on the given pool, which the caller shuts down
+	public void setPool(ForkJoinPool pool) { this.pool = pool; }
+}
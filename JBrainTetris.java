@@ -14,36 +14,27 @@ brain -- just subclass off LameBrain and override rateBoard().
 import java.awt.*;
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.awt.event.*;
 import javax.swing.event.*;
 
 public class JBrainTetris extends JTetris 
 implements Brain {
 
-    protected boolean brainActive;
-    protected int previousCount;
-    protected Brain.Move best;
-    protected Brain brains;
     protected JTextField brainText;
     protected JTextField advText;
-    protected int gamesPlayed;
-    protected boolean drop;
     protected JSlider adversary;
-    protected int opponent;
-    protected Brain myOpponent;
-    protected int gamePieces = 0;
+    protected JCheckBox parallel;
 
     public final int MAXGAMES = 10000;
-    public final boolean OPTIMIZING = true;
 
     public JBrainTetris(int w, int h) {
         super(w, h);
-        brainActive = false;
-        previousCount = count;
-        brains = this;
-        gamesPlayed = 0;
-        drop = true;
-        myOpponent = this; //new Sith(false);
+        // the game engine runs the brain and the adversary
+        game.setBrain(this);
+        game.setBrainActive(false);
+        game.setDrop(true);
+        game.setOpponent(this); //new Sith(false);
     }
 
     /**
@@ -130,7 +121,7 @@ implements Brain {
                 public void actionPerformed(ActionEvent e) {
                     try {
                         Class bClass = Class.forName(advText.getText());
-                        myOpponent = (Brain) bClass.newInstance();
+                        game.setOpponent((Brain) bClass.newInstance());
                         advText.setText(advText.getText() + " loaded");
                     }
                     catch (Exception ex) {
@@ -148,7 +139,8 @@ implements Brain {
                 public void actionPerformed(ActionEvent e) {
                     try {
                         Class bClass = Class.forName(brainText.getText());
-                        brains = (Brain) bClass.newInstance();
+                        game.setBrain((Brain) bClass.newInstance());
+                        updateParallel();
                         brainText.setText(brainText.getText() + " loaded");
                     }
                     catch (Exception ex) {
@@ -162,7 +154,7 @@ implements Brain {
         JCheckBox falling = new JCheckBox("Animate Falling");
         falling.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
-                    drop = !drop;
+                    game.setDrop(!game.getDrop());
                 }
             });
         panel.add(falling);
@@ -170,171 +162,37 @@ implements Brain {
         JCheckBox brain = new JCheckBox("Brain Active");
         brain.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
-                    brainActive = !brainActive;
+                    game.setBrainActive(!game.isBrainActive());
                 }
             });
         panel.add(brain);
 
-        return(panel);
-    }
-
-    public static final int ROTATE = 0;
-    public static final int LEFT = 1;
-    public static final int RIGHT = 2;
-    public static final int DROP = 3;
-    public static final int DOWN = 4;
-
-    /**
-    Called to change the position of the current piece.
-    Each key press call this once with the verbs
-    LEFT RIGHT ROTATE DROP for the user moves,
-    and the timer calls it with the verb DOWN to move
-    the piece down one square.
-
-    Before this is called, the piece is at some location in the board.
-    This advances the piece to be at its next location.
-
-    Overriden by the brain when it plays.
-     */
-    public void tick(int verb) {
-        int r = 0;
-        if (!gameOn) {
-            return;
-        }
-        if (currentPiece != null) {
-            board.undo(); // remove the piece from its old position
-        }
-
-        if (previousCount != count && brainActive) {
-            previousCount++;
-            // got a new piece - figure out where to put it
-            best = brains.bestMove(board, currentPiece, HEIGHT, null);
-            //System.out.println(best.score);
-        }
-        boolean moved = false;
-        boolean lost = false;
-        if (brainActive && best != null) {
-            // move towards ideal - we get one move and one rotation
-            if (!currentPiece.equals(best.piece)) {
-                computeNewPosition(ROTATE);
-                r = setCurrent(newPiece, newX, newY);
-                if (r >= Board.PLACE_OUT_BOUNDS)
-                    lost = true;
-                board.undo();
-                moved = true;
-            }
-            if (currentX > best.x) {
-                computeNewPosition(LEFT);
-                r = setCurrent(newPiece, newX, newY);
-                if (r >= Board.PLACE_OUT_BOUNDS)
-                    lost = true;
-                board.undo();
-                moved = true;
-            }
-            if (currentX < best.x) {
-                computeNewPosition(RIGHT);
-                r = setCurrent(newPiece, newX, newY);
-                if (r >= Board.PLACE_OUT_BOUNDS)
-                    lost = true;
-                board.undo();
-                moved = true;
-            }
-            if (!moved && drop && !lost) {
-                computeNewPosition(DROP);
-                r = setCurrent(newPiece, newX, newY);
-                board.undo();
-            }
-        }
-
-        // Sets the newXXX ivars
-        computeNewPosition(verb);
-
-        // try out the new position (rolls back if it doesn't work)
-        int result = setCurrent(newPiece, newX, newY);
-
-        // if row clearing is going to happen, draw the
-        // whole board so the green row shows up
-        if (result ==  Board.PLACE_ROW_FILLED) repaint();
-
-        boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-
-        // if it didn't work, put it back the way it was
-        if (failed || lost) {
-            if (currentPiece != null) board.place(currentPiece, currentX, currentY);
-        }
-
-        /*
-        How to detect when a piece has landed:
-        if this move hits something on its DOWN verb,
-        and the previous verb was also DOWN (i.e. the player was not
-        still moving it),  then the previous position must be the correct
-        "landed" position, so we're done with the falling of this piece.
-         */
-        if ((failed && verb==DOWN && !moved) || lost) { // it's landed
-
-            //if (!drop)
-            if (board.clearRows()) {
-                repaint(); // repaint to show the result of the row clearing
-            }
-
-            // if the board is too tall, we've lost
-            if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
-                stopGame();
-            }
-            // Otherwise add a new piece and keep playing
-            else {
-                addNewPiece();
-            }
-        }
+        // rates a LameBrain's moves on all the cores; enabled only
+        // for a loaded brain that can search in parallel
+        parallel = new JCheckBox("Parallel Brain");
+        parallel.setEnabled(false);
+        parallel.addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    updateParallel();
+                }
+            });
+        panel.add(parallel);
 
-        // Note if the player made a successful non-DOWN move --
-        // used to detect if the piece has landed on the next tick()
-        moved = (!failed && verb!=DOWN);
+        return(panel);
     }
 
-    /**
-    Selects the next piece to use using the random generator
-    set in startGame().  Updated to check on adversary
+    /*
+    Gives the current brain the common pool if the Parallel Brain
+    box is checked, for the brain loaded at any time. The box is
+    disabled for brains that can't use it
      */
-    public Piece pickNextPiece() {
-        gamePieces++;
-        int r = 101;
-        if (!testMode)
-            r = Math.abs(random.nextInt()) % 100;
-        //System.out.println(r+" "+opponent);
-        int pieceNum;
-        pieceNum = (int) (pieces.length * random.nextDouble());
-        long delta = (System.currentTimeMillis() - startTime)/10;
-
-        if (r < opponent && (OPTIMIZING && (delta < 150 || r < 80)) ) {
-            double score = 1000000.0;
-            double best = 0.0;
-            Brain.Move mov;
-            Piece piece = pieces[0];
-            // feed all of the pieces to the adversary
-            board.commit();
-            mov = myOpponent.bestMove(board, piece, HEIGHT, null);
-            if (mov != null) 
-                score = mov.score;
-            pieceNum = 0;
-            for (int i = 1; i < pieces.length; i++) {
-                piece = pieces[i];
-                myOpponent.bestMove(board, piece, HEIGHT, mov);
-                if (mov != null) {
-                    score = mov.score;
-                    if (score > best) {
-                        pieceNum = i;
-                        best = score;
-                    }
-                }
-            }
-            //System.out.println("Picked piece with score "+best);
-            //return piece;
+    private void updateParallel() {
+        Brain b = game.getBrain();
+        boolean usable = (b instanceof LameBrain) && ((LameBrain) b).canSearchInParallel();
+        parallel.setEnabled(usable);
+        if (usable) {
+            ((LameBrain) b).setPool(parallel.isSelected() ? ForkJoinPool.commonPool() : null);
         }
-
-        Piece piece  = pieces[pieceNum];
-
-        return(piece);
     }
 
     /*
@@ -342,30 +200,7 @@ implements Brain {
      */
     public void updateOpponent() {
         double value = ((double)adversary.getValue())/adversary.getMaximum();
-        opponent = (int) (value * 100);
-    }
-
-    /**
-    Stops the game.
-     */
-    public void stopGame() {
-        gameOn = false;
-        enableButtons();
-        timer.stop();
-
-        long delta = (System.currentTimeMillis() - startTime)/10;
-        timeLabel.setText(Double.toString(delta/100.0) + " seconds");
-        gamesPlayed++;
-        gamePieces = 0;
-    }
-
-    /**
-    Sets the enabling of the start/stop buttons
-    based on the gameOn state.
-     */
-    private void enableButtons() {
-        startButton.setEnabled(!gameOn);
-        stopButton.setEnabled(gameOn);
+        game.setOpponentPercent((int) (value * 100));
     }
 
     /**
@@ -381,37 +216,32 @@ implements Brain {
         int bestX = 0;
         int bestY = 0;
         Piece bestPiece = null;
-        Piece current = piece;
-
-        // loop through all the rotations
-        while (true) {
-            final int yBound = limitHeight - current.getHeight()+1;
-            final int xBound = board.getWidth() - current.getWidth()+1;
-
-            // For current rotation, try all the possible columns
-            for (int x = 0; x<xBound; x++) {
-                int y = board.dropHeight(current, x);
-                if (y<yBound) { // piece does not stick up too far
-                    int result = board.place(current, x, y);
-                    if (result <= Board.PLACE_ROW_FILLED) {
-                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
-
-                        double score = rateBoard(board);
-
-                        if (score<bestScore) {
-                            bestScore = score;
-                            bestX = x;
-                            bestY = y;
-                            bestPiece = current;
-                        }
-                    }
 
-                    board.undo(); // back out that play, loop around for the next
+        // loop through all the rotations and columns
+        PlacementTable.Placement[] placements =
+            PlacementTable.forWidth(board.getWidth()).getPlacements(piece);
+        for (int i = 0; i < placements.length; i++) {
+            PlacementTable.Placement placement = placements[i];
+            final int yBound = limitHeight - placement.piece.getHeight()+1;
+
+            int y = board.dropHeight(placement);
+            if (y<yBound) { // piece does not stick up too far
+                int result = board.place(placement, y);
+                if (result <= Board.PLACE_ROW_FILLED) {
+                    if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+
+                    double score = rateBoard(board);
+
+                    if (score<bestScore) {
+                        bestScore = score;
+                        bestX = placement.x;
+                        bestY = y;
+                        bestPiece = placement.piece;
+                    }
                 }
-            }
 
-            current = current.nextRotation();
-            if (current == piece) break; // break if back to original rotation
+                board.undo(); // back out that play, loop around for the next
+            }
         }
 
         if (bestPiece == null) return(null); // could not find a play at all!
@@ -8,6 +8,9 @@ import javax.swing.event.*;
 /**
 JTetris presents a tetris game in a window.
 It handles the GUI and the animation.
+The game itself is played by a GameEngine --
+JTetris feeds it ticks from the timer and keys, and
+repaints when the engine reports changes.
 The Piece and Board classes handle the
 lower-level computations.
 This code is provided in finished form for the students.
@@ -17,27 +20,15 @@ See Tetris-Architecture.html for an overview.
 @version 1.0, March 1, 2001
  */
 
-/*
-Implementation notes:
--The "currentPiece" points to a piece that is
-currently falling, or is null when there is no piece.
--tick() moves the current piece
--a timer object calls tick(DOWN) periodically
--keystrokes call tick with LEFT, RIGHT, etc.
--Board.undo() is used to remove the piece from its
-old position and then Board.place() is used to install
-the piece in its new position.
- */
-
-public class JTetris extends JComponent {
+public class JTetris extends JComponent implements GameEngine.Listener {
     // size of the board in blocks
-    public static final int WIDTH = 10;
-    public static final int HEIGHT = 20;
+    public static final int WIDTH = GameEngine.WIDTH;
+    public static final int HEIGHT = GameEngine.HEIGHT;
 
     // Extra blocks at the top for pieces to start.
     // If a piece is sticking up into this area
     // when it has landed -- game over!
-    public static final int TOP_SPACE = 4;
+    public static final int TOP_SPACE = GameEngine.TOP_SPACE;
 
     // When this is true, plays a fixed sequence of 100 pieces
     protected boolean testMode = false;
@@ -46,28 +37,8 @@ public class JTetris extends JComponent {
     // Is drawing optimized
     protected boolean DRAW_OPTIMIZE = true;
 
-    // Board data structures
-    protected Board board;
-    protected Piece[] pieces;
-
-    // The current piece in play or null
-    protected Piece currentPiece;
-    protected int currentX;
-    protected int currentY;
-    protected boolean moved; // did the player move the piece
-
-    // The piece we're thinking about playing
-    // -- set by computeNewPosition
-    protected Piece newPiece;
-    protected int newX;
-    protected int newY;
-
-    // State of the game
-    protected boolean gameOn; // true if we are playing
-    protected int count;  // how many pieces played so far
-    protected long startTime; // used to measure elapsed time
-    protected Random random; // the random generator for new pieces
-    protected int gamesPlayed;  // how many games we've played (used for optimizing)
+    // The game being played
+    protected GameEngine game;
 
     // Controls
     protected JLabel countLabel;
@@ -83,11 +54,9 @@ public class JTetris extends JComponent {
         super();
 
         setPreferredSize(new Dimension(width, height));
-        gameOn = false;
-        gamesPlayed = 0;
 
-        pieces = Piece.getPieces();
-        board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        game = new GameEngine(TEST_LIMIT);
+        game.setListener(this);
 
         /*
         Register key handlers that call
@@ -172,14 +141,7 @@ public class JTetris extends JComponent {
     Stops the game.
      */
     public void stopGame() {
-        System.out.println("Hunh!");
-        gameOn = false;
-        enableButtons();
-        timer.stop();
-
-        long delta = (System.currentTimeMillis() - startTime)/10;
-        timeLabel.setText(Double.toString(delta/100.0) + " seconds");
-        gamesPlayed++;
+        game.stopGame();
     }
 
     /**
@@ -187,23 +149,15 @@ public class JTetris extends JComponent {
     so the game is happening.
      */
     public void startGame() {
-        // cheap way to reset the board state
-        board = new Board(WIDTH, HEIGHT + TOP_SPACE);
+        game.setTestMode(testMode);
+        game.startGame();
 
         // draw the new board state once
         repaint();
 
-        count = 0;
-        gameOn = true;
-
-        if (testMode) random = new Random(0); // same seq every time
-        else random = new Random(); // diff seq each game
-
         enableButtons();
         timeLabel.setText(" ");
-        addNewPiece();
         timer.start();
-        startTime = System.currentTimeMillis();
     }
 
     /**
@@ -211,201 +165,52 @@ public class JTetris extends JComponent {
     based on the gameOn state.
      */
     private void enableButtons() {
-        startButton.setEnabled(!gameOn);
-        stopButton.setEnabled(gameOn);
-    }
-
-    /**
-    Given a piece, tries to install that piece
-    into the board and set it to be the current piece.
-    Does the necessary repaints.
-    If the placement is not possible, then the placement
-    is undone, and the board is not changed. The board
-    should be in the committed state when this is called.
-    Returns the same error code as Board.place().
-     */
-    public int setCurrent(Piece piece, int x, int y) {
-        int result = board.place(piece, x, y);
-
-        if (result <= Board.PLACE_ROW_FILLED) { // SUCESS
-            // repaint the rect where it used to be
-            if (currentPiece != null) repaintPiece(currentPiece, currentX, currentY);
-            currentPiece = piece;
-            currentX = x;
-            currentY = y;
-            // repaint the rect where it is now
-            repaintPiece(currentPiece, currentX, currentY);
-        }
-        else {
-            board.undo();
-        }
-
-        return(result);
-    }
-
-    /**
-    Selects the next piece to use using the random generator
-    set in startGame().
-     */
-    public Piece pickNextPiece() {
-        int pieceNum;
-
-        pieceNum = (int) (pieces.length * random.nextDouble());
-
-        Piece piece  = pieces[pieceNum];
-
-        return(piece);
-    }
-
-    /**
-    Tries to add a new random at the top of the board.
-    Ends the game if it's not possible.
-     */
-    public void addNewPiece() {
-        count++;
-
-        if (testMode && count == TEST_LIMIT+1) {
-            stopGame();
-            return;
-        }
-
-        Piece piece = pickNextPiece();
-
-        // Center it up at the top
-        int px = (board.getWidth() - piece.getWidth())/2;
-        int py = board.getHeight() - piece.getHeight();
-
-        // commit things the way they are
-        board.commit();
-        currentPiece = null;
-
-        // add the new piece to be in play
-        int result = setCurrent(piece, px, py);
-
-        // This probably never happens, since
-        // the blocks at the top allow space
-        // for new pieces to at least be added.
-        if (result>Board.PLACE_ROW_FILLED) {
-            stopGame();
-        }
-
-        countLabel.setText(Integer.toString(count));
+        startButton.setEnabled(!game.isGameOn());
+        stopButton.setEnabled(game.isGameOn());
     }
 
-    /**
-    Figures a new position for the current piece
-    based on the given verb (LEFT, RIGHT, ...).
-    The board should be in the committed state --
-    i.e. the piece should not be in the board at the moment.
-    This is necessary so dropHeight() may be called without
-    the piece "hitting itself" on the way down.
-
-    Sets the ivars newX, newY, and newPiece to hold
-    what it thinks the new piece position should be.
-    (Storing an intermediate result like that in
-    ivars is a little tacky.)
-     */
-    public void computeNewPosition(int verb) {
-        // As a starting point, the new position is the same as the old
-        newPiece = currentPiece;
-        newX = currentX;
-        newY = currentY;
-
-        // Make changes based on the verb
-        switch (verb) {
-            case LEFT: newX--; break;
-
-            case RIGHT: newX++; break;
-
-            case ROTATE:
-            newPiece = newPiece.nextRotation();
-
-            // tricky: make the piece appear to rotate about its center
-            // can't just leave it at the same lower-left origin as the
-            // previous piece.
-            newX = newX + (currentPiece.getWidth() - newPiece.getWidth())/2;
-            newY = newY + (currentPiece.getHeight() - newPiece.getHeight())/2;
-            break;
-
-            case DOWN: newY--; break;
-
-            case DROP:
-            // note: if the piece were in the board, it would interfere here
-            newY = board.dropHeight(newPiece, newX);
-            break;
-
-            default:
-            throw new RuntimeException("Bad verb");
-        }
-
-    }
-
-    public static final int ROTATE = 0;
-    public static final int LEFT = 1;
-    public static final int RIGHT = 2;
-    public static final int DROP = 3;
-    public static final int DOWN = 4;
+    public static final int ROTATE = GameEngine.ROTATE;
+    public static final int LEFT = GameEngine.LEFT;
+    public static final int RIGHT = GameEngine.RIGHT;
+    public static final int DROP = GameEngine.DROP;
+    public static final int DOWN = GameEngine.DOWN;
     /**
     Called to change the position of the current piece.
     Each key press call this once with the verbs
     LEFT RIGHT ROTATE DROP for the user moves,
     and the timer calls it with the verb DOWN to move
-    the piece down one square.
-
-    Before this is called, the piece is at some location in the board.
-    This advances the piece to be at its next location.
-
-    Overriden by the brain when it plays.
+    the piece down one square. See GameEngine.tick().
      */
     public void tick(int verb) {
-        if (!gameOn) return;
-
-        if (currentPiece != null) {
-            board.undo(); // remove the piece from its old position
-        }
-
-        // Sets the newXXX ivars
-        computeNewPosition(verb);
-
-        // try out the new position (rolls back if it doesn't work)
-        int result = setCurrent(newPiece, newX, newY);
+        game.tick(verb);
+    }
 
-        // if row clearing is going to happen, draw the
-        // whole board so the green row shows up
-        if (result ==  Board.PLACE_ROW_FILLED) repaint();
+    /*
+    GameEngine.Listener callbacks -- these keep the display
+    in step with the game.
+     */
 
-        boolean failed = (result >= Board.PLACE_OUT_BOUNDS);
-        // if it didn't work, put it back the way it was
-        if (failed) {
-            if (currentPiece != null) board.place(currentPiece, currentX, currentY);
-        }
+    public void pieceMoved(Piece oldPiece, int oldX, int oldY, Piece piece, int x, int y) {
+        // repaint the rect where it used to be
+        if (oldPiece != null) repaintPiece(oldPiece, oldX, oldY);
+        // repaint the rect where it is now
+        repaintPiece(piece, x, y);
+    }
 
-        /*
-        How to detect when a piece has landed:
-        if this move hits something on its DOWN verb,
-        and the previous verb was also DOWN (i.e. the player was not
-        still moving it),  then the previous position must be the correct
-        "landed" position, so we're done with the falling of this piece.
-         */
-        if (failed && verb==DOWN && !moved) { // it's landed
+    public void boardChanged() {
+        repaint();
+    }
 
-            if (board.clearRows()) {
-                repaint(); // repaint to show the result of the row clearing
-            }
+    public void pieceAdded(int count) {
+        countLabel.setText(Integer.toString(count));
+    }
 
-            // if the board is too tall, we've lost
-            if (board.getMaxHeight() > board.getHeight() - TOP_SPACE) {
-                stopGame();
-            }
-            // Otherwise add a new piece and keep playing
-            else {
-                addNewPiece();
-            }
-        }
+    public void gameStopped() {
+        enableButtons();
+        timer.stop();
 
-        // Note if the player made a successful non-DOWN move --
-        // used to detect if the piece has landed on the next tick()
-        moved = (!failed && verb!=DOWN);
+        long delta = (System.currentTimeMillis() - game.getStartTime())/10;
+        timeLabel.setText(Double.toString(delta/100.0) + " seconds");
     }
 
     /**
@@ -440,12 +245,12 @@ public class JTetris extends JComponent {
 
     // width in pixels of a block
     private final float dX() {
-        return( ((float)(getWidth()-2)) / board.getWidth() );
+        return( ((float)(getWidth()-2)) / game.getBoard().getWidth() );
     }
 
     // height in pixels of a block
     private final float dY() {
-        return( ((float)(getHeight()-2)) / board.getHeight() );
+        return( ((float)(getHeight()-2)) / game.getBoard().getHeight() );
     }
 
     // the x pixel coord of the left side of a block
@@ -465,6 +270,7 @@ public class JTetris extends JComponent {
     Draws rows that are filled all the way across in green.
      */
     public void paintComponent(Graphics g) {
+        final Board board = game.getBoard();
 
         // Draw a rect around the whole thing
         g.drawRect(0, 0, getWidth()-1, getHeight()-1);
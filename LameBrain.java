@@ -1,4 +1,8 @@
 
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
 import static java.lang.Math.*;
 
 /**
@@ -12,53 +16,160 @@ import static java.lang.Math.*;
  play with the lowest score. Undo() is used to back-out
  each play before trying the next. To experiment with writing your own
  brain -- just subclass off LameBrain and override rateBoard().
+
+ rateBoard() is a weighted sum of 11 board features. The weights are
+ fixed when the brain is made -- the defaults below, a file named by
+ the "brain.weights" system property, or a vector tuned offline by
+ PSODriver -- so rating a board never runs the optimizer.
+
+ With setPool(), bestMove() rates the placements in parallel on a
+ ForkJoinPool. Each worker thread plays them out on its own copy
+ of the board, with its own feature buffers, and the best is then
+ picked in the usual order, so the move is the same as the serial one.
+ Brains that search past the first piece override scorePlacement()
+ and get the parallel search for free.
 */
 
 public class LameBrain implements Brain {
+    /**
+     The hand-tuned weights for holes, max height, average height,
+     bumpiness, complete lines, row transitions, column transitions,
+     wells, filled cells above holes, rows with holes and height difference.
+     */
+    public static final double[] DEFAULT_WEIGHTS = {
+        99, 10, 20, 10, 0.25, 59, 59, 45, 29, 29, 20
+    };
+
+    protected double[] weights;
+
+    // scratch space for one thread -- a board copy for the parallel
+    // search, and the buffers used by rateBoard()
+    private static class Worker {
+        Board board;
+        final BoardFeatures extractor = new BoardFeatures();
+        final double[] features = new double[BoardFeatures.COUNT];
+    }
+
+    protected static final Piece[] NO_PREVIEW = new Piece[0];
+
+    // placements per parallel task
+    private static final int SPLIT = 4;
+
+    private final Worker serial = new Worker();
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+    private ForkJoinPool pool;
+
+    /**
+     * Makes a brain with the weights from the file named by the
+     * "brain.weights" system property, or the default weights if
+     * the property is not set.
+     */
+    public LameBrain() {
+        String filename = System.getProperty("brain.weights");
+        if (filename != null) {
+            setWeights(readWeights(filename));
+        } else {
+            setWeights(DEFAULT_WEIGHTS);
+        }
+    }
+
+    /**
+     * Makes a brain that rates boards with the given weights.
+     */
+    public LameBrain(double[] weights) {
+        setWeights(weights);
+    }
+
+    /**
+     * Sets the weights used by rateBoard(). The array is copied.
+     */
+    public void setWeights(double[] weights) {
+        if (weights.length != BoardFeatures.COUNT) {
+            throw new RuntimeException("Expected " + BoardFeatures.COUNT
+                    + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     * Returns a copy of the weights used by rateBoard().
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * Sets the pool that bestMove() rates placements on,
+     * or null (the default) to rate them one at a time.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns true if setPool() makes bestMove() search in parallel.
+     * Brains whose search doesn't go through search() return false.
+     */
+    public boolean canSearchInParallel() {
+        return true;
+    }
+
     /**
      * Given a piece and a board, returns a move object that represents
      * the best play for that piece, or returns null if no play is possible.
      * See the Brain interface for details.
      */
     public Brain.Move bestMove(Board board, Piece piece, int limitHeight, Brain.Move move) {
+        return search(board, piece, NO_PREVIEW, limitHeight, move);
+    }
+
+    /**
+     * Tries every placement of the piece and returns the one with
+     * the lowest scorePlacement(), or null if none fits. Ties go to
+     * the first in PlacementTable order, serial or parallel.
+     */
+    protected Brain.Move search(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
         // Allocate a move object if necessary
         if (move == null) move = new Brain.Move();
 
+        // loop through all the rotations and columns
+        PlacementTable.Placement[] placements =
+            PlacementTable.forWidth(board.getWidth()).getPlacements(piece);
+        if (pool != null && placements.length > SPLIT) {
+            return parallelSearch(board, placements, preview, limitHeight, move);
+        }
+
         double bestScore = 1e20;
         int bestX = 0;
         int bestY = 0;
         Piece bestPiece = null;
-        Piece current = piece;
-
-        // loop through all the rotations
-        while (true) {
-            final int yBound = limitHeight - current.getHeight() + 1;
-            final int xBound = board.getWidth() - current.getWidth() + 1;
-
-            // For current rotation, try all the possible columns
-            for (int x = 0; x < xBound; x++) {
-                int y = board.dropHeight(current, x);
-                if (y < yBound) { // piece does not stick up too far
-                    int result = board.place(current, x, y);
-                    if (result <= Board.PLACE_ROW_FILLED) {
-                        if (result == Board.PLACE_ROW_FILLED) board.clearRows();
-
-                        double score = rateBoard(board);
-
-                        if (score < bestScore) {
-                            bestScore = score;
-                            bestX = x;
-                            bestY = y;
-                            bestPiece = current;
-                        }
-                    }
 
-                    board.undo(); // back out that play, loop around for the next
+        for (int i = 0; i < placements.length; i++) {
+            PlacementTable.Placement placement = placements[i];
+            final int yBound = limitHeight - placement.piece.getHeight() + 1;
+
+            int y = board.dropHeight(placement);
+            if (y < yBound) { // piece does not stick up too far
+                int result = board.place(placement, y);
+                if (result <= Board.PLACE_ROW_FILLED) {
+                    if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+
+                    double score = scorePlacement(board, preview, limitHeight);
+
+                    if (score < bestScore) {
+                        bestScore = score;
+                        bestX = placement.x;
+                        bestY = y;
+                        bestPiece = placement.piece;
+                    }
                 }
-            }
 
-            current = current.nextRotation();
-            if (current == piece) break; // break if back to original rotation
+                board.undo(); // back out that play, loop around for the next
+            }
         }
 
         if (bestPiece == null) return (null); // could not find a play at all!
@@ -70,231 +181,154 @@ public class LameBrain implements Brain {
             return (move);
         }
     }
- 
- 
-
-    public double rateBoard(Board board) {
 
+    /**
+     * Scores the board just after a placement, which is still
+     * pending (not committed) on it. LameBrain rates the board;
+     * lookahead brains search on from it. Must be safe to call
+     * from several threads on different boards when a pool is set.
+     */
+    protected double scorePlacement(Board board, Piece[] preview, int limitHeight) {
+        return rateBoard(board);
+    }
 
+    // splits the placements across the pool; each task plays its share
+    // out on its thread's own copy of the board. scores[i] is NaN if
+    // placement i doesn't fit, and the best is reduced in index order
+    private Brain.Move parallelSearch(Board board, final PlacementTable.Placement[] placements,
+                                      final Piece[] preview, final int limitHeight, Brain.Move move) {
+        final int[] state = new int[board.getStateSize()];
+        board.saveState(state);
         final int width = board.getWidth();
         final int height = board.getHeight();
-        final int maxHeight = board.getMaxHeight();
-
-        int sumHeight = 0;
-        int holes = 0;
-        int completeLines = 0;
-        int bumpiness = 0;
-        int rowTransitions = 0;
-        int columnTransitions = 0;
-        int wells = 0;
-        int filledAboveHoles = 0;
-        int rowsWithHoles = 0;
-        double averageHeight = 0;
-        boolean[] areHoles = new boolean[maxHeight];
-
-        // initialize all the cells below maxHeight to be filled
-        for(int y = 0; y < maxHeight; y++) {
-            areHoles[y] = false;
-        }
-
-        // count the holes and sum the heights
-        for (int x = 0; x < width; x++) {
-            // find the column height and add them to sumHeight
-            int colHeight = board.getColumnHeight(x);
-            sumHeight += colHeight;
-            // address of the first possible hole
-            int y = colHeight - 2;
-            while (y >= 0) {
-                if (!board.getGrid(x, y)) {
-                    holes++;
-                    areHoles[y] = true;
-                }
-                y--;
+        final int undoDepth = board.getMaxUndoDepth();
+        final double[] scores = new double[placements.length];
+        final int[] ys = new int[placements.length];
+
+        class Rate extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            final int from;
+            final int to;
+
+            Rate(int from, int to) {
+                this.from = from;
+                this.to = to;
             }
-        }
 
-        // count the number of rows that have at least one hole
-        for(int y = 0; y < maxHeight; y++) {
-            if (areHoles[y]) {
-                rowsWithHoles += 1;
+            protected void compute() {
+                if (to - from > SPLIT) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new Rate(from, mid), new Rate(mid, to));
+                    return;
+                }
+                Worker worker = workers.get();
+                if (worker.board == null || worker.board.getWidth() != width
+                    || worker.board.getHeight() != height
+                    || worker.board.getMaxUndoDepth() < undoDepth) {
+                    worker.board = new Board(width, height, undoDepth);
+                    worker.board.setTrackFeatures(true);
+                }
+                Board copy = worker.board;
+                copy.restoreState(state);
+                for (int i = from; i < to; i++) {
+                    PlacementTable.Placement placement = placements[i];
+                    scores[i] = Double.NaN;
+                    int y = copy.dropHeight(placement);
+                    if (y < limitHeight - placement.piece.getHeight() + 1) {
+                        int result = copy.place(placement, y);
+                        if (result <= Board.PLACE_ROW_FILLED) {
+                            if (result == Board.PLACE_ROW_FILLED) copy.clearRows();
+                            scores[i] = scorePlacement(copy, preview, limitHeight);
+                            ys[i] = y;
+                        }
+                        copy.undo();
+                    }
+                }
             }
         }
+        pool.invoke(new Rate(0, placements.length));
 
-
-
-        // calculate the average height
-        averageHeight = sumHeight/board.getWidth();
-
-        // calculating the complete lines that will be eliminated
-        for (int y = 0; y < maxHeight; y++) {
-            int filledRow = board.getRowWidth(y);
-            if (filledRow == width) {
-                completeLines++;
+        double bestScore = 1e20;
+        int best = -1;
+        for (int i = 0; i < placements.length; i++) {
+            if (scores[i] < bestScore) { // false for NaN
+                bestScore = scores[i];
+                best = i;
             }
-
         }
+        if (best < 0) return (null); // could not find a play at all!
+        move.x = placements[best].x;
+        move.y = ys[best];
+        move.piece = placements[best].piece;
+        move.score = bestScore;
+        return (move);
+    }
+ 
+ 
 
-        // calculate the bumpiness of the board: the accumulated change in column height
-        for (int x = 1; x < width; x++) {
-            // calculate the height of the column to the left
-            int colHeightPrev = board.getColumnHeight(x - 1);
-            // calculate the height of the column at the current index
-            int colHeightCurr = board.getColumnHeight(x);
-            // calculate the difference between column heights
-            bumpiness += Math.abs(colHeightCurr - colHeightPrev);
-
+    /**
+     * Rates the board as the weighted sum of its BoardFeatures --
+     * larger numbers for worse boards. Allocates nothing.
+     * With a pool set each thread uses its own buffers.
+     * Boards that track their features (see Board.setTrackFeatures())
+     * are rated from the tracked values, which is about twice as fast.
+     */
+    public double rateBoard(Board board) {
+        final Worker worker = (pool == null) ? serial : workers.get();
+        final double[] features = worker.features;
+        final double[] weights = this.weights;
+        worker.extractor.extract(board, features);
+
+        double value = 0;
+        for (int i = 0; i < BoardFeatures.COUNT; i++) {
+            value += weights[i] * features[i];
         }
+        return(value);
+    }
 
-        // calculate the row and column transition: number of filled cell adjacent to empty cell
-        // summed over all rows and columns (border of the board is counted as a filled cell)
-        for (int x = 0; x < width; x++) {
-            int colHeight = board.getColumnHeight(x);
-            for (int y = 0; y < colHeight; y++) {
-                // if the cell is filled
-                if (board.getGrid(x, y)) {
-                    // if the cell to the left of it is empty
-                    if (x > 0 && !board.getGrid(x - 1, y)) {
-                        rowTransitions++;
-                    }
-                    // if the cell to the right of it is empty
-                    if (x < width - 1 && !board.getGrid(x + 1, y)) {
-                        rowTransitions++;
-                    }
-                    // if the cell below it is empty
-                    if (y > 0 && !board.getGrid(x, y - 1)) {
-                        columnTransitions++;
-                    }
-                    // if the cell above it is empty
-                    if (y < height - 1 && !board.getGrid(x, y + 1)) {
-                        columnTransitions++;
-                    }
+    /**
+     * Reads a weight vector from a text file of whitespace
+     * separated numbers, as written by writeWeights().
+     */
+    public static double[] readWeights(String filename) {
+        ArrayList<Double> list = new ArrayList<Double>();
+        try {
+            Scanner in = new Scanner(new File(filename));
+            try {
+                while (in.hasNext()) {
+                    list.add(Double.parseDouble(in.next()));
                 }
+            } finally {
+                in.close();
             }
         }
-
-        // calculate the number of filled cells above holes
-        for (int x = 0; x < width; x++) {
-            // initialize the number of filled cells above holes in this column to 0
-            int filledAboveHolesColumn = 0;
-            // initialize isHole to false
-            boolean isHole = false;
-            // loop from the top of column down
-            for (int i = board.getColumnHeight(x) - 1; i >= 0; i--) {
-                // if the cell is empty
-                if (!board.getGrid(x, i)) {
-                    // there is a hole
-                    isHole = true;
-                }
-                // if the cell is empty, does not add 1
-                // if the cell is filled, increment filledAboveHolesColumn by 1
-                filledAboveHolesColumn += isHole ? 0 : 1;
-            }
-            // if there is no hole in the entire column, there is no filled cell above holes
-            if (!isHole) {
-                filledAboveHolesColumn = 0;
-            }
-            filledAboveHoles += filledAboveHolesColumn;
+        catch (IOException | NumberFormatException e) {
+            throw new RuntimeException("Could not read weights from " + filename, e);
         }
+        double[] weights = new double[list.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = list.get(i);
+        }
+        return weights;
+    }
 
-        // calculate the number of wells: empty cells where both their left and right are filled
-        // board border is counted all filled cell
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < maxHeight; y++) {
-                int colHeight = board.getColumnHeight(x);
-                // if the cell is empty and it is above column Height
-                if (!board.getGrid(x, y) && y > colHeight - 1) {
-                    // if the emtpy cell is at index 0,
-                    // treat the border as a filled cell, add to wells if the next cell is filled
-                    if (x == 0 && board.getGrid(x + 1, y)) {
-                        wells++;
-                    }
-                    // if the cell to the right and to the left of empty cell are both filled
-                    // increament wells
-                    if (x > 0 && board.getGrid(x - 1, y) && board.getGrid(x + 1, y)) {
-                        wells++;
-                    }
-                    // if the empty cell is at the last index
-                    // treat the border as a filled cell, if the cell to the left is filled
-                    // increment wells
-                    if (x == width - 1 && board.getGrid(x - 1, y) && !board.getGrid(x, y + 1)) {
-                        wells++;
-                    }
+    /**
+     * Writes a weight vector to a text file, one number per line.
+     */
+    public static void writeWeights(String filename, double[] weights) {
+        try {
+            PrintWriter out = new PrintWriter(new FileWriter(filename));
+            try {
+                for (int i = 0; i < weights.length; i++) {
+                    out.println(weights[i]);
                 }
+            } finally {
+                out.close();
             }
         }
-        
-        // Finding the difference between the lowest ang tallest height
-        int minHeight = board.getHeight();
-        for(int x = 0; x < width; x++ ){
-           int currColHeight = board.getColumnHeight(x);
-           if(currColHeight < minHeight){
-               minHeight = currColHeight;
-            }
+        catch (IOException e) {
+            throw new RuntimeException("Could not write weights to " + filename, e);
         }
-        int heightDiff = Math.abs(maxHeight - minHeight);
-
-        double[] features = new double[11];
-
-        features[0] = holes;
-        features[1] = maxHeight;
-        features[2] = averageHeight;
-        features[3] = bumpiness;
-        features[4] = completeLines;
-        features[5] = rowTransitions;
-        features[6] = columnTransitions;
-        features[7] = wells;
-        features[8] = filledAboveHoles;
-        features[9] = rowsWithHoles;
-        features[10] = heightDiff;
-
-        double[] weights = new double[11];
-
-        weights[0] = 99;
-        weights[1] = 10;
-        weights[2] = 20;
-        weights[3] = 10;
-        weights[4] = 0.25;
-        weights[5] = 59;
-        weights[6] = 59;
-        weights[7] = 45;
-        weights[8] = 29;
-        weights[9] = 29;
-        weights[10] = 20;
-
-        calculateWeight(features, weights);
-
-//        weights[0] = newWeights[0];
-//        weights[1] = newWeights[1];
-//        weights[2] = newWeights[2];
-//        weights[3] = newWeights[3];
-//        weights[4] = newWeights[4];
-//        weights[5] = newWeights[5];
-//        weights[6] = newWeights[6];
-//        weights[7] = newWeights[7];
-//        weights[8] = newWeights[8];
-//        weights[9] = newWeights[9];
-//        weights[10] = newWeights[10];
-
-        double value = weights[0] *holes + weights[1] *maxHeight + weights[2]*averageHeight +
-                weights[3]*bumpiness + weights[4]*completeLines +
-                weights[5]*rowTransitions + weights[6]*columnTransitions +
-                weights[7]*wells + weights[8]*filledAboveHoles + weights[9]*rowsWithHoles +
-                weights[10]*heightDiff;
-
-        //System.out.println("The value");
-        return(value);
-    }
-
-    // returns the array
-    public void calculateWeight(double[] array, double[] weights){
-
-
-        //call PSO here
-        PSOProcess pso = new PSOProcess(array, weights);
-        double[] newWeights = pso.execute(array);
-
-
-
     }
 
 }
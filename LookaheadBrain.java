@@ -0,0 +1,69 @@
+// LookaheadBrain.java
+
+/**
+ A LameBrain that looks one piece ahead.
+ For every placement of the current piece, it tries every
+ placement of the next piece from the preview on top of it,
+ and rates the play by the best board the two pieces can make
+ together -- around 34x34 boards per move.
+
+ The search is done in place on the one Board: the first piece
+ is placed and left pending, push() opens a nested undo level
+ for the second piece, undo() backs out each second placement
+ and pop() takes the board back to the first one. Nothing is
+ copied or allocated per board. Without a preview it plays just
+ like LameBrain. With setPool() the first placements are searched
+ in parallel, see LameBrain.
+*/
+public class LookaheadBrain extends LameBrain implements PreviewBrain {
+    // scores a first placement that leaves no room for the second piece
+    private static final double NO_ROOM = 1e19;
+
+    public LookaheadBrain() {
+        super();
+    }
+
+    public LookaheadBrain(double[] weights) {
+        super(weights);
+    }
+
+    /**
+     * Picks the move for the current piece that allows the best
+     * placement of the first preview piece. See PreviewBrain.
+     */
+    public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move) {
+        if (preview.length == 0) {
+            return bestMove(board, piece, limitHeight, move);
+        }
+        return search(board, piece, preview, limitHeight, move);
+    }
+
+    /**
+     * Scores the board after the first piece by the best board
+     * the next piece can make on top of it.
+     */
+    protected double scorePlacement(Board board, Piece[] preview, int limitHeight) {
+        if (preview.length == 0) {
+            return rateBoard(board);
+        }
+        PlacementTable.Placement[] seconds =
+            PlacementTable.forWidth(board.getWidth()).getPlacements(preview[0]);
+
+        board.push(); // keep the first piece, try the second on top
+        double score = NO_ROOM;
+        for (int j = 0; j < seconds.length; j++) {
+            PlacementTable.Placement second = seconds[j];
+            int y = board.dropHeight(second);
+            if (y >= limitHeight - second.piece.getHeight() + 1) continue;
+
+            int result = board.place(second, y);
+            if (result <= Board.PLACE_ROW_FILLED) {
+                if (result == Board.PLACE_ROW_FILLED) board.clearRows();
+                score = Math.min(score, rateBoard(board));
+            }
+            board.undo();
+        }
+        board.pop();
+        return score;
+    }
+}
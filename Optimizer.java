@@ -0,0 +1,13 @@
+//package org.gandhim.pso;
+
+// something that searches for the weights minimizing a fitness function.
+// PSOProcess and CMAES both implement it, and both evaluate on a parallel
+// pool, so PSODriver can pick either for the same game-based fitness.
+// implementations start from the weights given to their constructor
+
+public interface Optimizer {
+	// minimizes fitness over dimension weights with at most about budget
+	// evaluations, using seed for the random numbers; returns the best
+	// weights found
+	double[] optimize(FitnessFunction fitness, int dimension, int budget, long seed);
+}
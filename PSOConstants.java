@@ -8,10 +8,10 @@
 public interface PSOConstants {
 	int SWARM_SIZE = 30;
 	int MAX_ITERATION = 10;
-	int PROBLEM_DIMENSION = 11;
+	int PROBLEM_DIMENSION = BoardFeatures.COUNT; // one weight per LameBrain feature
 	double C1 = 2.0;
 	double C2 = 2.0;
 	double W_UPPERBOUND = 1.0;
 	double W_LOWERBOUND = 0.0;
-	double[] GLOBAL_WEIGHTS = new double[11];
+	double[] GLOBAL_WEIGHTS = new double[PROBLEM_DIMENSION];
 }
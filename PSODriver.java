@@ -3,27 +3,119 @@
 /* author: gandhi - gandhi.mtm [at] gmail [dot] com - Depok, Indonesia */
 
 // this is a driver class to execute the PSO process
+// tuning is an offline stage: the best weights found are written to the
+// file given as the first argument, and LameBrain loads them with
+// -Dbrain.weights=<file>
+// with a second argument the particles are scored by playing that many
+// real games each (GameFitness) instead of the linear ProblemSet function
+// after that, the option "async" runs the swarm without the iteration
+// barrier, and "race" drops particles that are clearly worse than the best
+// one early (RacingFitness)
+// "checkpoint=<file>" saves the swarm every "interval=<n>" iterations
+// (default 1), "resume" carries on from that checkpoint if it exists, and
+// "from=<file>" starts the swarm at the best weights of an old checkpoint
+// "cache=<resolution>" remembers the fitness of weights rounded to that
+// resolution (FitnessCache), so near-identical particles are only scored once
+// "islands=<k>" runs k swarms that swap their bests every "migrate=<m>"
+// iterations (IslandPSO, default every 2); they can't be checkpointed
+// "cmaes" searches with CMA-ES instead of the swarm, starting with step
+// size "sigma=<s>" (default 10) and stopping after "budget=<n>" fitness
+// evaluations (default SWARM_SIZE * (MAX_ITERATION + 1), what the swarm uses);
+// checkpoints, "async" and islands are swarm options and can't be combined with it
+
+import java.io.File;
+import java.util.Arrays;
 
 public class PSODriver {
 	public static void main(String args[]) {
-		double[] features = {15.0, 10.0, 15.0, 20.0, 1.0, 10.0, 10.0, 7.0, 15.0, 10.0, 5.0};
-
-		double[] weights = new double[11];
-
-		weights[0] = 99;
-		weights[1] = 10;
-		weights[2] = 20;
-		weights[3] = 10;
-		weights[4] = 0.25;
-		weights[5] = 59;
-		weights[6] = 59;
-		weights[7] = 45;
-		weights[8] = 29;
-		weights[9] = 29;
-		weights[10] = 20;
-
-		PSOProcess pso = new PSOProcess(features, weights);
-		double[] newWeights = pso.execute(features);
-		//System.out.println(newWeights[0]);
+		// the linear test problem, padded with 0s or cut to the swarm's dimension
+		double[] features = Arrays.copyOf(new double[] {15.0, 10.0, 15.0, 20.0, 1.0, 10.0, 10.0, 7.0, 15.0, 10.0, 5.0},
+				PSOConstants.PROBLEM_DIMENSION);
+
+		double[] weights = LameBrain.DEFAULT_WEIGHTS.clone();
+
+		boolean async = false;
+		boolean race = false;
+		boolean resume = false;
+		String checkpoint = null;
+		int interval = 1;
+		double resolution = 0;
+		int islands = 0;
+		int migrate = 2;
+		boolean cmaes = false;
+		double sigma = 10;
+		int budget = PSOConstants.SWARM_SIZE * (PSOConstants.MAX_ITERATION + 1);
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("async")) async = true;
+			else if (args[i].equals("race")) race = true;
+			else if (args[i].equals("resume")) resume = true;
+			else if (args[i].startsWith("checkpoint=")) checkpoint = args[i].substring("checkpoint=".length());
+			else if (args[i].startsWith("interval=")) interval = Integer.parseInt(args[i].substring("interval=".length()));
+			else if (args[i].startsWith("cache=")) resolution = Double.parseDouble(args[i].substring("cache=".length()));
+			else if (args[i].startsWith("islands=")) islands = Integer.parseInt(args[i].substring("islands=".length()));
+			else if (args[i].startsWith("migrate=")) migrate = Integer.parseInt(args[i].substring("migrate=".length()));
+			else if (args[i].equals("cmaes")) cmaes = true;
+			else if (args[i].startsWith("sigma=")) sigma = Double.parseDouble(args[i].substring("sigma=".length()));
+			else if (args[i].startsWith("budget=")) budget = Integer.parseInt(args[i].substring("budget=".length()));
+			else if (args[i].startsWith("from=")) weights = PSOProcess.readBest(args[i].substring("from=".length()));
+		}
+
+		if (islands > 0 && (checkpoint != null || resume)) {
+			// the islands are separate swarms, there is no single one to save
+			throw new IllegalArgumentException("checkpoint= and resume can't be used with islands=");
+		}
+
+		if (cmaes && (checkpoint != null || resume || async || islands > 0)) {
+			// CMA-ES is not a swarm, none of the swarm's run modes apply
+			throw new IllegalArgumentException("checkpoint=, resume, async and islands= can't be used with cmaes");
+		}
+
+		FitnessFunction fitness = null;
+		FitnessCache cache = null;
+		if (args.length > 1) {
+			int games = Integer.parseInt(args[1]);
+			if (race) {
+				fitness = new RacingFitness(games, System.nanoTime());
+			} else {
+				fitness = new GameFitness(games, System.nanoTime());
+			}
+			if (resolution > 0) {
+				cache = new FitnessCache(fitness, resolution, 10000);
+			}
+		}
+		FitnessFunction scored = (cache != null) ? cache : fitness;
+
+		double[] newWeights;
+		if (cmaes) {
+			if (scored == null) {
+				scored = w -> ProblemSet.evaluate(w, features);
+			}
+			Optimizer optimizer = new CMAES(weights, sigma);
+			newWeights = optimizer.optimize(scored, weights.length, budget, System.nanoTime());
+		} else if (islands > 0) {
+			newWeights = new IslandPSO(scored, weights, islands, migrate).execute();
+		} else {
+			PSOProcess pso = (scored != null) ? new PSOProcess(scored, weights) : new PSOProcess(features, weights);
+			if (checkpoint != null) {
+				pso.setCheckpoint(checkpoint, interval);
+				if (resume && new File(checkpoint).exists()) {
+					pso.resume(checkpoint);
+				}
+			}
+			if (async) {
+				newWeights = pso.executeAsync();
+			} else {
+				newWeights = pso.execute(features);
+			}
+		}
+		if (fitness instanceof RacingFitness) {
+			System.out.println(fitness);
+		}
+		if (cache != null) {
+			System.out.println(cache);
+		}
+		if (args.length > 0) {
+			LameBrain.writeWeights(args[0], newWeights);
+		}
 	}
 }
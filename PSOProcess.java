@@ -3,50 +3,193 @@
 /* author: gandhi - gandhi.mtm [at] gmail [dot] com - Depok, Indonesia */
 
 // this is the heart of the PSO program
-// the code is for 2-dimensional space problem
-// but you can easily modify it to solve higher dimensional space problem
+// it works for any number of dimensions, set by PROBLEM_DIMENSION, which
+// is the number of board features LameBrain weighs (BoardFeatures.COUNT),
+// so adding a feature there grows the swarm with no other edits here; the
+// linear function needs one feature per dimension
+// the fitness of the particles comes from a FitnessFunction, either the
+// linear ProblemSet function or real games (GameFitness); every iteration
+// the whole swarm is evaluated in parallel on a work-stealing pool, either
+// one given to setPool() or one made for the run and shut down after it
+// the swarm is kept as flat arrays, particle i's coordinates are at
+// [i*PROBLEM_DIMENSION .. (i+1)*PROBLEM_DIMENSION-1], and every array is
+// allocated once and updated in place, so iterations create no garbage
+// executeAsync() runs the same swarm without the iteration barrier: each
+// particle moves as soon as its own evaluation is done, using whatever the
+// global best is at that moment, so slow particles don't leave cores idle
+// with setCheckpoint() execute() saves the whole swarm to a binary file
+// every few iterations; resume() loads it back, so a long tuning run can
+// be killed and pick up where it left off, and readBest() gets the best
+// weights out of a checkpoint to start a new swarm from
+// setMigration() makes the swarm one island of an IslandPSO: every few
+// iterations it sends its global best out and takes in the other islands'
+// bests, each replacing the particle with the worst pBest if it's better
 
-import java.util.Random;
-import java.util.Vector;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class PSOProcess implements PSOConstants {
-	private Vector<Particle> swarm = new Vector<Particle>();
+public class PSOProcess implements PSOConstants, Optimizer {
+	// names of the LameBrain weights, for printing
+	private static final String[] WEIGHT_NAMES = {"Holes", "MaxHeight", "AverageHeight", "Bumpiness",
+			"CompleteLines", "RowTransitions", "ColumnTransitions", "Wells", "FilledAboveHoles",
+			"RowsWithHoles", "HeightDiff"};
+
+	private double[] position = new double[SWARM_SIZE * PROBLEM_DIMENSION];
+	private double[] velocity = new double[SWARM_SIZE * PROBLEM_DIMENSION];
+	private double[] pBestLocation = new double[SWARM_SIZE * PROBLEM_DIMENSION];
 	private double[] pBest = new double[SWARM_SIZE];
-	private Vector<Location> pBestLocation = new Vector<Location>();
 	private double gBest;
-	private Location gBestLocation;
+	private double[] gBestLocation = new double[PROBLEM_DIMENSION];
 	private double[] fitnessValueList = new double[SWARM_SIZE];
 	private double[] features;
-	private double[] weights = new double[11];
+	private double[] weights;
+	private FitnessFunction fitness;
+	private double tolerance;
+	private int maxIteration = MAX_ITERATION;
+	private ForkJoinPool pool; // from setPool(), or made for each run
+	private Evaluation[] evaluations = new Evaluation[SWARM_SIZE];
+	private int evaluationIteration;
+	
+	// asynchronous mode state
+	private AtomicReference<Best> best = new AtomicReference<Best>();
+	private AtomicInteger evaluationsLeft = new AtomicInteger();
+	private AtomicInteger evaluationsDone = new AtomicInteger();
+	private CountDownLatch finished;
+	private AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	
+	// checkpoints
+	private static final int CHECKPOINT_MAGIC = 0x50534F43; // "PSOC"
+	private static final int CHECKPOINT_VERSION = 1;
+	private String checkpointFile;
+	private int checkpointInterval;
+	private int resumeIteration = -1; // the iteration to resume at, -1 for a fresh start
 	
-	Random generator = new Random();
+	// island mode; migrants are a location with its fitness appended
+	private Queue<double[]> inbox;
+	private Queue<double[]> outbox;
+	private int migrationInterval;
+	private boolean verbose = true;
+	
+	PSORandom generator = new PSORandom();
 
-	public PSOProcess(double[] features, double[] weights){
+	public PSOProcess(final double[] features, double[] weights){
+		if(features.length != PROBLEM_DIMENSION) {
+			throw new IllegalArgumentException("Got " + features.length + " features, PROBLEM_DIMENSION is "
+					+ PROBLEM_DIMENSION);
+		}
 		this.features = features;
 		this.weights = weights;
+		this.fitness = new FitnessFunction() {
+			public double evaluate(double[] w) {
+				return ProblemSet.evaluate(w, features);
+			}
+		};
+		this.tolerance = ProblemSet.ERR_TOLERANCE;
+		createEvaluations();
+	}
+
+	// runs the swarm on the given fitness function, starting every particle at weights
+	// it stops after MAX_ITERATION iterations, there is no target value to reach
+	public PSOProcess(FitnessFunction fitness, double[] weights){
+		this.weights = weights;
+		this.fitness = fitness;
+		this.tolerance = Double.NEGATIVE_INFINITY;
+		createEvaluations();
+	}
+	
+	// the fitness function is given later, to optimize()
+	public PSOProcess(double[] weights){
+		this.weights = weights;
+		this.tolerance = Double.NEGATIVE_INFINITY;
+		createEvaluations();
+	}
+	
+	// runs execute() with as many iterations as the budget allows
+	// the dimension must be PROBLEM_DIMENSION, the swarm arrays are sized by it
+	public double[] optimize(FitnessFunction fitness, int dimension, int budget, long seed) {
+		if(dimension != PROBLEM_DIMENSION) {
+			throw new IllegalArgumentException("PSOProcess works in " + PROBLEM_DIMENSION
+					+ " dimensions, not " + dimension);
+		}
+		this.fitness = fitness;
+		this.generator = new PSORandom(seed);
+		this.maxIteration = Math.max(1, budget / SWARM_SIZE - 1);
+		return execute();
 	}
 	
+	// the features are fixed when the process is built, this is kept for old callers
 	public double[] execute(double[] features) {
-		initializeSwarm(features);
-		updateFitnessList();
+		return execute();
+	}
 
-//		double[] features = {15.0, 10.0, 15.0, 20.0, 1.0, 10.0, 10.0, 7.0, 15.0, 10.0, 5.0};
-		
-		for(int i=0; i<SWARM_SIZE; i++) {
-			pBest[i] = fitnessValueList[i];
-			pBestLocation.add(swarm.get(i).getLocation());
+	public double[] execute() {
+		boolean ownPool = openPool();
+		try {
+			return runSwarm();
+		} finally {
+			closePool(ownPool);
 		}
-		
-		int t = 0;
+	}
+	
+	// makes a pool with one worker per core if none was given to setPool()
+	// returns true if the run owns it and has to shut it down
+	private boolean openPool() {
+		if(pool != null) {
+			return false;
+		}
+		pool = new ForkJoinPool();
+		return true;
+	}
+	
+	private void closePool(boolean ownPool) {
+		if(ownPool) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+	
+	private double[] runSwarm() {
+		int t;
 		double w;
-		double err = 9999;
+		double err;
+		
+		if(resumeIteration >= 0) {
+			// the swarm and its latest fitness values came from resume()
+			t = resumeIteration;
+			err = gBest - 0;
+			resumeIteration = -1;
+		} else {
+			initializeSwarm();
+			updateFitnessList(0);
+			
+			System.arraycopy(fitnessValueList, 0, pBest, 0, SWARM_SIZE);
+			System.arraycopy(position, 0, pBestLocation, 0, position.length);
+			
+			t = 0;
+			err = 9999;
+		}
 		
-		while(t < MAX_ITERATION && err > ProblemSet.ERR_TOLERANCE) {
+		while(t < maxIteration && err > tolerance) {
 			// step 1 - update pBest
 			for(int i=0; i<SWARM_SIZE; i++) {
 				if(fitnessValueList[i] < pBest[i]) {
 					pBest[i] = fitnessValueList[i];
-					pBestLocation.set(i, swarm.get(i).getLocation());
+					System.arraycopy(position, i * PROBLEM_DIMENSION, pBestLocation, i * PROBLEM_DIMENSION, PROBLEM_DIMENSION);
 				}
 			}
 				
@@ -54,177 +197,436 @@ public class PSOProcess implements PSOConstants {
 			int bestParticleIndex = PSOUtility.getMinPos(fitnessValueList);
 			if(t == 0 || fitnessValueList[bestParticleIndex] < gBest) {
 				gBest = fitnessValueList[bestParticleIndex];
-				gBestLocation = swarm.get(bestParticleIndex).getLocation();
+				System.arraycopy(position, bestParticleIndex * PROBLEM_DIMENSION, gBestLocation, 0, PROBLEM_DIMENSION);
+			}
+			
+			if(outbox != null && (t + 1) % migrationInterval == 0) {
+				migrate();
 			}
 			
-			w = W_UPPERBOUND - (((double) t) / MAX_ITERATION) * (W_UPPERBOUND - W_LOWERBOUND);
+			w = W_UPPERBOUND - (((double) t) / maxIteration) * (W_UPPERBOUND - W_LOWERBOUND);
 			
 			for(int i=0; i<SWARM_SIZE; i++) {
 				double r1 = generator.nextDouble();
 				double r2 = generator.nextDouble();
-
-				Particle p = swarm.get(i);
-				
-				// step 3 - update velocity
-				double[] newVel = new double[PROBLEM_DIMENSION];
-				newVel[0] = (w * p.getVelocity().getPos()[0]) + 
-							(r1 * C1) * (pBestLocation.get(i).getLoc()[0] - p.getLocation().getLoc()[0]) +
-							(r2 * C2) * (gBestLocation.getLoc()[0] - p.getLocation().getLoc()[0]);
-				newVel[1] = (w * p.getVelocity().getPos()[1]) + 
-							(r1 * C1) * (pBestLocation.get(i).getLoc()[1] - p.getLocation().getLoc()[1]) +
-							(r2 * C2) * (gBestLocation.getLoc()[1] - p.getLocation().getLoc()[1]);
-				newVel[2] = (w * p.getVelocity().getPos()[2]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[2] - p.getLocation().getLoc()[2]) +
-						(r2 * C2) * (gBestLocation.getLoc()[2] - p.getLocation().getLoc()[2]);
-				newVel[3] = (w * p.getVelocity().getPos()[3]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[3] - p.getLocation().getLoc()[3]) +
-						(r2 * C2) * (gBestLocation.getLoc()[3] - p.getLocation().getLoc()[3]);
-				newVel[4] = (w * p.getVelocity().getPos()[4]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[4] - p.getLocation().getLoc()[4]) +
-						(r2 * C2) * (gBestLocation.getLoc()[4] - p.getLocation().getLoc()[4]);
-				newVel[5] = (w * p.getVelocity().getPos()[5]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[5] - p.getLocation().getLoc()[5]) +
-						(r2 * C2) * (gBestLocation.getLoc()[5] - p.getLocation().getLoc()[5]);
-				newVel[6] = (w * p.getVelocity().getPos()[6]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[6] - p.getLocation().getLoc()[6]) +
-						(r2 * C2) * (gBestLocation.getLoc()[6] - p.getLocation().getLoc()[6]);
-				newVel[7] = (w * p.getVelocity().getPos()[7]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[7] - p.getLocation().getLoc()[7]) +
-						(r2 * C2) * (gBestLocation.getLoc()[7] - p.getLocation().getLoc()[7]);
-				newVel[8] = (w * p.getVelocity().getPos()[8]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[8] - p.getLocation().getLoc()[8]) +
-						(r2 * C2) * (gBestLocation.getLoc()[8] - p.getLocation().getLoc()[8]);
-				newVel[9] = (w * p.getVelocity().getPos()[9]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[9] - p.getLocation().getLoc()[9]) +
-						(r2 * C2) * (gBestLocation.getLoc()[9] - p.getLocation().getLoc()[9]);
-				newVel[10] = (w * p.getVelocity().getPos()[10]) +
-						(r1 * C1) * (pBestLocation.get(i).getLoc()[10] - p.getLocation().getLoc()[10]) +
-						(r2 * C2) * (gBestLocation.getLoc()[10] - p.getLocation().getLoc()[10]);
-
-
-				Velocity vel = new Velocity(newVel);
-				p.setVelocity(vel);
+				int base = i * PROBLEM_DIMENSION;
 				
-				// step 4 - update location
-				double[] newLoc = new double[PROBLEM_DIMENSION];
-				newLoc[0] = p.getLocation().getLoc()[0] + newVel[0];
-				newLoc[1] = p.getLocation().getLoc()[1] + newVel[1];
-				newLoc[2] = p.getLocation().getLoc()[2] + newVel[2];
-				newLoc[3] = p.getLocation().getLoc()[3] + newVel[3];
-				newLoc[4] = p.getLocation().getLoc()[4] + newVel[4];
-				newLoc[5] = p.getLocation().getLoc()[5] + newVel[5];
-				newLoc[6] = p.getLocation().getLoc()[6] + newVel[6];
-				newLoc[7] = p.getLocation().getLoc()[7] + newVel[7];
-				newLoc[8] = p.getLocation().getLoc()[8] + newVel[8];
-				newLoc[9] = p.getLocation().getLoc()[9] + newVel[9];
-				newLoc[10] = p.getLocation().getLoc()[10] + newVel[10];
-				Location loc = new Location(newLoc);
-				p.setLocation(loc);
+				for(int d=0; d<PROBLEM_DIMENSION; d++) {
+					// step 3 - update velocity
+					velocity[base + d] = (w * velocity[base + d]) +
+							(r1 * C1) * (pBestLocation[base + d] - position[base + d]) +
+							(r2 * C2) * (gBestLocation[d] - position[base + d]);
+					
+					// step 4 - update location
+					position[base + d] += velocity[base + d];
+				}
 			}
 			
-			err = ProblemSet.evaluate(gBestLocation, features) - 0; // minimizing the functions means it's getting closer to 0
+			err = gBest - 0; // minimizing the functions means it's getting closer to 0
 			
-			System.out.println("ITERATION " + t + ": ");
-			System.out.println("     Best weightHoles: " + gBestLocation.getLoc()[0]);
-			System.out.println("     Best weightMaxHeight: " + gBestLocation.getLoc()[1]);
-			System.out.println("     Best weightAverageHeight: " + gBestLocation.getLoc()[2]);
-			System.out.println("     Best weightBumpiness: " + gBestLocation.getLoc()[3]);
-			System.out.println("     Best weightCompleteLines: " + gBestLocation.getLoc()[4]);
-			System.out.println("     Best weightRowTransitions: " + gBestLocation.getLoc()[5]);
-			System.out.println("     Best weightColumnTransitions: " + gBestLocation.getLoc()[6]);
-			System.out.println("     Best weightWells: " + gBestLocation.getLoc()[7]);
-			System.out.println("     Best weightFilledAboveHoles: " + gBestLocation.getLoc()[8]);
-			System.out.println("     Best weightRowsWithHoles: " + gBestLocation.getLoc()[9]);
-			System.out.println("     Best weightHeightDiff: " + gBestLocation.getLoc()[10]);
-
-			System.out.println("     Final_Score: " + ProblemSet.evaluate(gBestLocation, features));
+			if(verbose) {
+				System.out.println("ITERATION " + t + ": ");
+				printBest();
+				System.out.println("     Final_Score: " + gBest);
+			}
 			
 			t++;
-			updateFitnessList();
+			updateFitnessList(t);
+			
+			if(checkpointFile != null && t % checkpointInterval == 0) {
+				saveCheckpoint(checkpointFile, t);
+			}
 		}
 		
-		System.out.println("\nSolution found at iteration " + (t - 1) + ", the solutions is:");
-		System.out.println("     Best weightHoles: " + gBestLocation.getLoc()[0]);
-		System.out.println("     Best weightMaxHeight: " + gBestLocation.getLoc()[1]);
-		System.out.println("     Best weightAverageHeight: " + gBestLocation.getLoc()[2]);
-		System.out.println("     Best weightBumpiness: " + gBestLocation.getLoc()[3]);
-		System.out.println("     Best weightCompleteLines: " + gBestLocation.getLoc()[4]);
-		System.out.println("     Best weightRowTransitions: " + gBestLocation.getLoc()[5]);
-		System.out.println("     Best weightColumnTransitions: " + gBestLocation.getLoc()[6]);
-		System.out.println("     Best weightWells: " + gBestLocation.getLoc()[7]);
-		System.out.println("     Best weightFilledAboveHoles: " + gBestLocation.getLoc()[8]);
-		System.out.println("     Best weightRowsWithHoles: " + gBestLocation.getLoc()[9]);
-		System.out.println("     Best weightHeightDiff: " + gBestLocation.getLoc()[10]);
-
-		double[] newWeights = new double[11];
-
-		newWeights[0] = gBestLocation.getLoc()[0];
-		newWeights[1] = gBestLocation.getLoc()[1];
-		newWeights[2] = gBestLocation.getLoc()[2];
-		newWeights[3] = gBestLocation.getLoc()[3];
-		newWeights[4] = gBestLocation.getLoc()[4];
-		newWeights[5] = gBestLocation.getLoc()[5];
-		newWeights[6] = gBestLocation.getLoc()[6];
-		newWeights[7] = gBestLocation.getLoc()[7];
-		newWeights[8] = gBestLocation.getLoc()[8];
-		newWeights[9] = gBestLocation.getLoc()[9];
-		newWeights[10] = gBestLocation.getLoc()[10];
-
+		if(verbose) {
+			System.out.println("\nSolution found at iteration " + (t - 1) + ", the solutions is:");
+			printBest();
+		}
 
-		return newWeights;
+		return gBestLocation.clone();
+	}
+	
+	// joins the swarm to an island ring: every interval iterations of
+	// execute() the global best goes into outbox, and migrants are taken
+	// out of inbox
+	public void setMigration(Queue<double[]> inbox, Queue<double[]> outbox, int interval) {
+		if(interval < 1) {
+			throw new IllegalArgumentException("Migration interval must be at least 1, not " + interval);
+		}
+		this.inbox = inbox;
+		this.outbox = outbox;
+		this.migrationInterval = interval;
+	}
+	
+	private void migrate() {
+		double[] emigrant = Arrays.copyOf(gBestLocation, PROBLEM_DIMENSION + 1);
+		emigrant[PROBLEM_DIMENSION] = gBest;
+		outbox.offer(emigrant);
+		
+		double[] immigrant;
+		while((immigrant = inbox.poll()) != null) {
+			double value = immigrant[PROBLEM_DIMENSION];
+			int worst = PSOUtility.getMaxPos(pBest);
+			if(value < pBest[worst]) {
+				int base = worst * PROBLEM_DIMENSION;
+				System.arraycopy(immigrant, 0, position, base, PROBLEM_DIMENSION);
+				System.arraycopy(immigrant, 0, pBestLocation, base, PROBLEM_DIMENSION);
+				pBest[worst] = value;
+				fitnessValueList[worst] = value;
+				if(value < gBest) {
+					gBest = value;
+					System.arraycopy(immigrant, 0, gBestLocation, 0, PROBLEM_DIMENSION);
+				}
+			}
+		}
 	}
 	
-	public void initializeSwarm(double[] features) {
-		Particle p;
+	// saves the swarm every interval iterations of execute() to the file
+	// the asynchronous mode has no iterations to stop at and doesn't checkpoint
+	public void setCheckpoint(String filename, int interval) {
+		if(interval < 1) {
+			throw new IllegalArgumentException("Checkpoint interval must be at least 1, not " + interval);
+		}
+		this.checkpointFile = filename;
+		this.checkpointInterval = interval;
+	}
+	
+	// the file is written next to the old one and then moved over it,
+	// so a run killed while saving still leaves the previous checkpoint
+	public void saveCheckpoint(String filename, int iteration) {
+		File file = new File(filename);
+		File temp = new File(filename + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(CHECKPOINT_MAGIC);
+				out.writeInt(CHECKPOINT_VERSION);
+				out.writeInt(SWARM_SIZE);
+				out.writeInt(PROBLEM_DIMENSION);
+				out.writeInt(iteration);
+				out.writeLong(generator.getState());
+				out.writeDouble(gBest);
+				writeArray(out, gBestLocation);
+				writeArray(out, position);
+				writeArray(out, velocity);
+				writeArray(out, pBestLocation);
+				writeArray(out, pBest);
+				writeArray(out, fitnessValueList);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not write checkpoint to " + filename, e);
+		}
+	}
+	
+	// loads a checkpoint; the next execute() carries on from it
+	// instead of starting a new swarm
+	public void resume(String filename) {
+		try {
+			DataInputStream in = openCheckpoint(filename);
+			try {
+				int iteration = in.readInt();
+				generator.setState(in.readLong());
+				gBest = in.readDouble();
+				readArray(in, gBestLocation);
+				readArray(in, position);
+				readArray(in, velocity);
+				readArray(in, pBestLocation);
+				readArray(in, pBest);
+				readArray(in, fitnessValueList);
+				resumeIteration = iteration;
+			} finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not read checkpoint from " + filename, e);
+		}
+		System.out.println("Resuming at iteration " + resumeIteration + " from " + filename);
+	}
+	
+	// the global best weights saved in a checkpoint, to start a new swarm from
+	public static double[] readBest(String filename) {
+		try {
+			DataInputStream in = openCheckpoint(filename);
+			try {
+				in.readInt();  // iteration
+				in.readLong(); // random state
+				in.readDouble();
+				double[] best = new double[PROBLEM_DIMENSION];
+				readArray(in, best);
+				return best;
+			} finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not read checkpoint from " + filename, e);
+		}
+	}
+	
+	// opens a checkpoint and checks its header matches this swarm
+	private static DataInputStream openCheckpoint(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+			in.close();
+			throw new IOException("Not a PSO checkpoint");
+		}
+		int swarmSize = in.readInt();
+		int dimension = in.readInt();
+		if(swarmSize != SWARM_SIZE || dimension != PROBLEM_DIMENSION) {
+			in.close();
+			throw new IOException("Checkpoint has " + swarmSize + " particles of dimension " + dimension
+					+ ", expected " + SWARM_SIZE + " of dimension " + PROBLEM_DIMENSION);
+		}
+		return in;
+	}
+	
+	private static void writeArray(DataOutputStream out, double[] array) throws IOException {
+		for(int i=0; i<array.length; i++) {
+			out.writeDouble(array[i]);
+		}
+	}
+	
+	private static void readArray(DataInputStream in, double[] array) throws IOException {
+		for(int i=0; i<array.length; i++) {
+			array[i] = in.readDouble();
+		}
+	}
+	
+	// runs the swarm asynchronously for the same number of evaluations as
+	// execute(): every particle is its own chain of tasks on the pool that
+	// evaluates, updates its pBest, offers it as the global best, moves and
+	// resubmits itself, until the evaluations run out
+	public double[] executeAsync() {
+		boolean ownPool = openPool();
+		try {
+			return runAsync();
+		} finally {
+			closePool(ownPool);
+		}
+	}
+	
+	private double[] runAsync() {
+		initializeSwarm();
 		for(int i=0; i<SWARM_SIZE; i++) {
-			p = new Particle();
-
-//			double[] features = {15.0, 10.0, 15.0, 20.0, 1.0, 10.0, 10.0, 7.0, 15.0, 10.0, 5.0};
-
-
-			// randomize location inside a space defined in Problem Set
-			double[] loc = new double[PROBLEM_DIMENSION];
-			loc[0] = weights[0];
-			loc[1] = weights[1];
-			loc[2] = weights[2];
-			loc[3] = weights[3];
-			loc[4] = weights[4];
-			loc[5] = weights[5];
-			loc[6] = weights[6];
-			loc[7] = weights[7];
-			loc[8] = weights[8];
-			loc[9] = weights[9];
-			loc[10] = weights[10];
-			Location location = new Location(loc);
-			
-			// randomize velocity in the range defined in Problem Set
-			double[] vel = new double[PROBLEM_DIMENSION];
-			vel[0] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[1] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[2] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[3] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[4] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[5] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[6] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[7] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[8] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[9] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
-			vel[10] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
+			pBest[i] = Double.POSITIVE_INFINITY;
+		}
+		best.set(null);
+		failure.set(null);
+		evaluationsLeft.set(SWARM_SIZE * (maxIteration + 1));
+		evaluationsDone.set(0);
+		finished = new CountDownLatch(SWARM_SIZE);
+		
+		for(int i=0; i<SWARM_SIZE; i++) {
+			pool.execute(new AsyncParticle(i));
+		}
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the swarm", e);
+		}
+		
+		// the first evaluation to fail stopped the swarm, pass it on
+		Throwable cause = failure.get();
+		if(cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if(cause instanceof Error) {
+			throw (Error) cause;
+		}
+		if(cause != null) {
+			throw new RuntimeException("A particle failed", cause);
+		}
+		
+		Best b = best.get();
+		gBest = b.fitness;
+		System.arraycopy(b.location, 0, gBestLocation, 0, PROBLEM_DIMENSION);
+		
+		if(verbose) {
+			System.out.println("\nSolution found after " + evaluationsDone.get() + " evaluations, the solutions is:");
+			printBest();
+			System.out.println("     Final_Score: " + gBest);
+		}
 
-			Velocity velocity = new Velocity(vel);
-			
-			p.setLocation(location);
-			p.setVelocity(velocity);
-			p.setFeatures(features);
-			swarm.add(p);
+		return gBestLocation.clone();
+	}
+	
+	// offers a location as the global best, lock-free: retries the
+	// compare-and-set until it wins or a better one is already published
+	private boolean offerBest(double value, double[] location) {
+		Best current = best.get();
+		Best candidate = null;
+		while(current == null || value < current.fitness) {
+			if(candidate == null) {
+				candidate = new Best(value, location.clone());
+			}
+			if(best.compareAndSet(current, candidate)) {
+				return true;
+			}
+			current = best.get();
+		}
+		return false;
+	}
+	
+	// every particle starts at the given weights, dimensions past the end
+	// of the weights start at 0, with a random velocity
+	public void initializeSwarm() {
+		for(int i=0; i<SWARM_SIZE; i++) {
+			int base = i * PROBLEM_DIMENSION;
+			for(int d=0; d<PROBLEM_DIMENSION; d++) {
+				position[base + d] = (d < weights.length) ? weights[d] : 0;
+				
+				// randomize velocity in the range defined in Problem Set
+				velocity[base + d] = ProblemSet.VEL_LOW + generator.nextDouble() * (ProblemSet.VEL_HIGH - ProblemSet.VEL_LOW);
+			}
+		}
+	}
+	
+	// evaluates every particle concurrently on the pool; the iteration
+	// is passed on so the fitness can score the whole swarm on the same games
+	public void updateFitnessList(int iteration) {
+		evaluationIteration = iteration;
+		for(int i=0; i<SWARM_SIZE; i++) {
+			evaluations[i].reinitialize();
+			pool.execute(evaluations[i]);
+		}
+		for(int i=0; i<SWARM_SIZE; i++) {
+			evaluations[i].join();
+		}
+	}
+	
+	private void printBest() {
+		printWeights(gBestLocation);
+	}
+	
+	static void printWeights(double[] weights) {
+		for(int d=0; d<weights.length; d++) {
+			String name = (d < WEIGHT_NAMES.length) ? WEIGHT_NAMES[d] : String.valueOf(d);
+			System.out.println("     Best weight" + name + ": " + weights[d]);
 		}
 	}
 	
-	public void updateFitnessList() {
+	private void createEvaluations() {
 		for(int i=0; i<SWARM_SIZE; i++) {
-			fitnessValueList[i] = swarm.get(i).getFitnessValue();
+			evaluations[i] = new Evaluation(i);
+		}
+	}
+	
+	// scores one particle; the tasks are built once and reinitialized
+	// every iteration. the particle's location is copied into its own
+	// buffer, so the fitness function may keep the array it is given
+	private class Evaluation extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int index;
+		private final double[] location = new double[PROBLEM_DIMENSION];
+		
+		Evaluation(int index) {
+			this.index = index;
+		}
+		
+		protected void compute() {
+			System.arraycopy(position, index * PROBLEM_DIMENSION, location, 0, PROBLEM_DIMENSION);
+			fitnessValueList[index] = fitness.evaluate(location, evaluationIteration);
+		}
+	}
+
+	// a published global best, never modified once made
+	private static final class Best {
+		final double fitness;
+		final double[] location;
+		
+		Best(double fitness, double[] location) {
+			this.fitness = fitness;
+			this.location = location;
 		}
 	}
+	
+	// one particle in asynchronous mode; runs one evaluate-and-move step
+	// and puts itself back on the pool for the next
+	private class AsyncParticle implements Runnable {
+		private final int index;
+		private final double[] location = new double[PROBLEM_DIMENSION];
+		
+		AsyncParticle(int index) {
+			this.index = index;
+		}
+		
+		// the latch counts the particle down once it stops, whether the
+		// evaluations ran out or one of them threw
+		public void run() {
+			boolean stopped = true;
+			try {
+				if(step()) {
+					pool.execute(this);
+					stopped = false;
+				}
+			} catch(Throwable e) {
+				failure.compareAndSet(null, e);
+				evaluationsLeft.set(0);
+			} finally {
+				if(stopped) {
+					finished.countDown();
+				}
+			}
+		}
+		
+		// one evaluate-and-move step, false once the evaluations run out
+		private boolean step() {
+			int left = evaluationsLeft.getAndDecrement();
+			if(left <= 0) {
+				return false;
+			}
+			// the evaluations are numbered in claim order, and every
+			// SWARM_SIZE of them count as one iteration of the fitness
+			int iteration = (SWARM_SIZE * (maxIteration + 1) - left) / SWARM_SIZE;
+			int base = index * PROBLEM_DIMENSION;
+			System.arraycopy(position, base, location, 0, PROBLEM_DIMENSION);
+			double value = fitness.evaluate(location, iteration);
+			int done = evaluationsDone.incrementAndGet();
+			
+			// update pBest, only this particle touches its own entries
+			if(value < pBest[index]) {
+				pBest[index] = value;
+				System.arraycopy(location, 0, pBestLocation, base, PROBLEM_DIMENSION);
+			}
+			
+			// update gBest
+			if(offerBest(value, location)) {
+				if(verbose) {
+					System.out.println("EVALUATION " + done + ": new best " + value);
+				}
+				if(value <= tolerance) {
+					evaluationsLeft.set(0);
+				}
+			}
+			
+			// move towards the bests, with the inertia of the iteration we're in
+			double[] g = best.get().location;
+			double t = Math.min((double) done / SWARM_SIZE, maxIteration);
+			double w = W_UPPERBOUND - (t / maxIteration) * (W_UPPERBOUND - W_LOWERBOUND);
+			double r1 = generator.nextDouble();
+			double r2 = generator.nextDouble();
+			for(int d=0; d<PROBLEM_DIMENSION; d++) {
+				velocity[base + d] = (w * velocity[base + d]) +
+						(r1 * C1) * (pBestLocation[base + d] - position[base + d]) +
+						(r2 * C2) * (g[d] - position[base + d]);
+				position[base + d] += velocity[base + d];
+			}
+			return true;
+		}
+	}
+
+	// runs the evaluations on the given pool, which the caller shuts down
+	public void setPool(ForkJoinPool pool) { this.pool = pool; }
+
+	public void setVerbose(boolean verbose) { this.verbose = verbose; }
+
+	public double getGBest() { return gBest; }
 
 	public void setWeights(double[] weights){ this.weights = weights; }
 }
@@ -0,0 +1,37 @@
+//package org.gandhim.pso;
+
+// the random numbers used by the PSO: a splitmix64 generator whose whole
+// state is one long, so it can be saved in a checkpoint and restored.
+// it is lock-free and safe to share between the particles of the
+// asynchronous mode; each call advances the state with one atomic add
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PSORandom {
+	private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+	private final AtomicLong state;
+
+	public PSORandom() {
+		this(System.nanoTime());
+	}
+
+	public PSORandom(long seed) {
+		state = new AtomicLong(seed);
+	}
+
+	// a uniform double in [0, 1)
+	public double nextDouble() {
+		return (mix64(state.addAndGet(GAMMA)) >>> 11) * 0x1.0p-53;
+	}
+
+	public long getState() { return state.get(); }
+
+	public void setState(long state) { this.state.set(state); }
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
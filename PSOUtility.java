@@ -2,7 +2,7 @@
 
 /* author: gandhi - gandhi.mtm [at] gmail [dot] com - Depok, Indonesia */
 
-// just a simple utility class to find a minimum position on a list
+// just a simple utility class to find a minimum or maximum position on a list
 
 public class PSOUtility {
 	public static int getMinPos(double[] list) {
@@ -18,4 +18,18 @@ public class PSOUtility {
 		
 		return pos;
 	}
+
+	public static int getMaxPos(double[] list) {
+		int pos = 0;
+		double maxValue = list[0];
+		
+		for(int i=0; i<list.length; i++) {
+			if(list[i] > maxValue) {
+				pos = i;
+				maxValue = list[i];
+			}
+		}
+		
+		return pos;
+	}
 }
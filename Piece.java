@@ -1,5 +1,3 @@
-
-import java.awt.*;
 import java.util.*;
 
 /**
@@ -7,6 +5,12 @@ import java.util.*;
    Each piece is defined by the blocks that make up its body.
    See the Tetris-Architecture.html for an overview.
  
+   The pieces and all of their rotations are built once, the first
+   time getPieces() is called, and shared from then on. Everything
+   is stored in primitive arrays -- the body as packed x,y pairs,
+   the skirt, and one bitmask per row of the piece -- so Board can
+   place pieces with a few mask operations and no AWT classes are needed.
+ 
    This is the starter file version -- a few simple things are filled in already
  
    @author	Nick Parlante
@@ -17,48 +21,58 @@ import java.util.*;
 public final class Piece {
     /*
       Implementation notes:
-      -The starter code does out a few simple things for you
-      -Store the body as a Point[] array
-      -The ivars in the Point class are .x and .y
+      -The body is stored as an int[] of x,y pairs:
+      block i is at (body[2*i], body[2*i+1])
+      -rowMasks[y] has bit x set if the block (x, y) is in the body
       -Do not assume there are 4 points in the body -- use array.length
       to keep the code general
     */
-    private Point[] body;
+    private int[] body;
     private int[] skirt;
+    private int[] tops;
+    private int[] rowMasks;
     private int width;
     private int height;
+    private int id;		// index in getPieces()
+    private int rotation;	// number of rotations from getPieces()[id]
     private Piece next;	// "next" rotation
 	
     static private Piece[] pieces;	// singleton array of first rotations
 	
 	
     /**
-       Defines a new piece given the Points that make up its body.
-       Makes its own copy of the array and the Point inside it.
+       Defines a new piece given the x,y pairs that make up its body.
        Does not set up the rotations.
 	 
        This constructor is PRIVATE -- if a client
        wants a piece object, they must use Piece.getPieces().
     */
-    private Piece(Point[] points) {
+    private Piece(int[] points) {
 	body = points;
 	width = 0;
 	height = 0;
-	for (int i = 0; i < body.length; i++) {
-	    if (body[i].x > width)
-		width = body[i].x;
-	    if (body[i].y > height)
-		height = body[i].y;
+	for (int i = 0; i < body.length; i += 2) {
+	    if (body[i] > width)
+		width = body[i];
+	    if (body[i+1] > height)
+		height = body[i+1];
 	}
 	width++;
 	height++;
-	// compute the skirt
+	// compute the skirt, the tops and the row masks
 	skirt = new int[width];
-	for (int i = 0; i < width; i++) {
+	tops = new int[width];
+	rowMasks = new int[height];
+	for (int i = 0; i < width; i++)
 	    skirt[i] = height;
-	    for (int j = 0; j < body.length; j++)
-		if (body[j].x == i && body[j].y < skirt[i])
-		    skirt[i] = body[j].y;
+	for (int i = 0; i < body.length; i += 2) {
+	    int x = body[i];
+	    int y = body[i+1];
+	    if (y < skirt[x])
+		skirt[x] = y;
+	    if (y + 1 > tops[x])
+		tops[x] = y + 1;
+	    rowMasks[y] |= 1 << x;
 	}
     }	
 
@@ -77,10 +91,11 @@ public final class Piece {
     }
 
     /**
-       Returns a pointer to the piece's body. The caller
+       Returns a pointer to the piece's body as x,y pairs --
+       block i is at (body[2*i], body[2*i+1]). The caller
        should not modify this array.
     */
-    public Point[] getBody() {
+    public int[] getBody() {
 	return(body);
     }
 	
@@ -94,6 +109,40 @@ public final class Piece {
 	return(skirt);
     }
 
+    /**
+       Returns a pointer to the piece's tops. For each x value
+       across the piece, this is the highest y value in the body + 1.
+       This is useful for updating the column heights.
+       The caller should not modify this array.
+    */
+    public int[] getTops() {
+	return(tops);
+    }
+
+    /**
+       Returns a pointer to the piece's row masks. For each y value
+       up the piece, bit x of the mask is set if (x, y) is in the body.
+       The caller should not modify this array.
+    */
+    public int[] getRowMasks() {
+	return(rowMasks);
+    }
+
+    /**
+       Returns the index of this piece in the getPieces() array.
+    */
+    public int getId() {
+	return(id);
+    }
+
+    /**
+       Returns how many nextRotation() steps this piece is from
+       the first rotation in the getPieces() array.
+    */
+    public int getRotation() {
+	return(rotation);
+    }
+
 
     /**
        Returns a piece that is 90 degrees counter-clockwise
@@ -114,20 +163,13 @@ public final class Piece {
        their bodies contain the same points.
        Interestingly, this is not the same as having exactly the
        same body arrays, since the points may not be
-       in the same order in the bodies. Used internally to detect
+       in the same order in the bodies. Comparing the row masks
+       takes care of that. Used internally to detect
        if two rotations are effectively the same.
     */
     public boolean equals(Piece other) {
 	if (this == other) return true;
-	for (int i = 0; i < body.length; i++) {
-	    boolean match = false;
-	    for (int j = 0; j < other.body.length && !match; j++)
-		if (body[i].x == other.body[j].x && body[i].y == other.body[j].y)
-		    match = true;
-	    if (!match)
-		return false;
-	}
-	return true;
+	return Arrays.equals(rowMasks, other.rowMasks);
     }
 
 
@@ -139,18 +181,15 @@ public final class Piece {
         Piece finger = current;
         int count = 1;
         do {
-            //System.out.println("Generating rotation height "+finger.height+" "+finger.width);
-            Point newBody[] = new Point[finger.body.length];
-            for (int i = 0; i < finger.body.length; i++) {
-                //System.out.println("Old point "+finger.body[i].x+" "+finger.body[i].y);
-                newBody[i] = new Point();
-                newBody[i].x = finger.body[i].y;
-                newBody[i].y = finger.body[i].x;
-                // flip over x-axis
-                newBody[i].x = finger.height - 1 - newBody[i].x;
-                //System.out.println("Next point "+newBody[i].x+" "+newBody[i].y);
+            int newBody[] = new int[finger.body.length];
+            for (int i = 0; i < finger.body.length; i += 2) {
+                // swap x and y, then flip over x-axis
+                newBody[i] = finger.height - 1 - finger.body[i+1];
+                newBody[i+1] = finger.body[i];
             }
             Piece p = new Piece(newBody);
+            p.id = current.id;
+            p.rotation = count;
             count++;
             if (p.equals(current))
                 finger.next = current;
@@ -170,60 +209,48 @@ public final class Piece {
        from each piece with the {@link #nextRotation()} message.
        In this way, the client can iterate through all the rotations
        until eventually getting back to the first rotation.
+       The array is computed when it is first asked for,
+       and the same array is returned after that.
     */
-    public static Piece[] getPieces() {
-	/*
-	  Hint
-	 
-	  My code to produce the array of the pieces looks like the following.
-	  -parsePoints computes the Point[] array
-	  -The Piece constructor builds a single piece but not the rotations
-	  -The helper function piecerRow() computes all the rotations of that piece
-	  and connects them by their .next fields.
-	 
-	  Your pieces must be in the same 0..6 order to get the same output as
-	  the sample solution. Only compute the array when it is first asked for.
-	  Then just re-use that array for later requests.
-	 
-	  };
-	*/
-	pieces = new Piece[] {
-	    pieceRow(new Piece(parsePoints("0 0	0 1	0 2	0 3"))),	// 0
-	    pieceRow(new Piece(parsePoints("0 0	0 1	0 2	1 0"))),	// 1
-	    pieceRow(new Piece(parsePoints("0 0	1 0	1 1	1 2"))),	// 2
-	    pieceRow(new Piece(parsePoints("0 0	1 0	1 1	2 1"))),	// 3
-	    pieceRow(new Piece(parsePoints("0 1	1 1	1 0	2 0"))),	// 4
-	    pieceRow(new Piece(parsePoints("0 0	0 1	1 0	1 1"))),	// 5
-	    pieceRow(new Piece(parsePoints("0 0	1 0	1 1	2 0"))),	// 6
-	};
+    public static synchronized Piece[] getPieces() {
+	if (pieces == null) {
+	    String[] shapes = {
+		"0 0	0 1	0 2	0 3",	// 0
+		"0 0	0 1	0 2	1 0",	// 1
+		"0 0	1 0	1 1	1 2",	// 2
+		"0 0	1 0	1 1	2 1",	// 3
+		"0 1	1 1	1 0	2 0",	// 4
+		"0 0	0 1	1 0	1 1",	// 5
+		"0 0	1 0	1 1	2 0",	// 6
+	    };
+	    Piece[] array = new Piece[shapes.length];
+	    for (int i = 0; i < shapes.length; i++) {
+		Piece piece = new Piece(parsePoints(shapes[i]));
+		piece.id = i;
+		array[i] = pieceRow(piece);
+	    }
+	    pieces = array;
+	}
         return pieces;
     }
 
 
     /**
        Given a string of x,y pairs ("0 0	0 1	0 2	1 0"), parses
-       the points into a Point[] array.
+       the points into an int[] array of x,y pairs.
        (Provided code)
     */
-    private static Point[] parsePoints(String string) {
-	// could use Arraylist here, but use vector so works on Java 1.1
-	Vector points = new Vector();
+    private static int[] parsePoints(String string) {
 	StringTokenizer tok = new StringTokenizer(string);
+	int[] array = new int[tok.countTokens()];
 	try {
-	    while(tok.hasMoreTokens()) {
-		int x = Integer.parseInt(tok.nextToken());
-		int y = Integer.parseInt(tok.nextToken());
-				
-		points.addElement(new Point(x, y));
+	    for (int i = 0; i < array.length; i++) {
+		array[i] = Integer.parseInt(tok.nextToken());
 	    }
 	}
 	catch (NumberFormatException e) {
-	    throw new RuntimeException("Could not parse x,y string:" + string);	// cheap way to do assert
+	    throw new RuntimeException("Could not parse x,y string:" + string);	// cheap way to assert
 	}
-		
-	// Make an array out of the Vector
-	Point[] array = new Point[points.size()];
-	points.copyInto(array);
 	return(array);
     }
 
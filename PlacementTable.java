@@ -0,0 +1,99 @@
+// PlacementTable.java
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ Precomputed placements for every rotation of every piece at every
+ legal x on a board of a given width. Each placement holds the piece's
+ row masks already shifted over to its x, along with the skirt and tops,
+ so Board can find the landing row and place the piece without
+ recomputing bounds or shifting blocks.
+
+ <p>Brains enumerate the placements for a piece with getPlacements()
+ instead of walking nextRotation() and the x values themselves.
+ The order is the same as that walk -- rotations starting from the
+ given piece, and x from left to right within each rotation --
+ so ties are broken the same way.
+ Tables are built once per board width and shared.
+*/
+public final class PlacementTable {
+    /**
+     A single precomputed (rotation, x) placement.
+     Used as a struct, like Brain.Move. The arrays must not be modified.
+    */
+    public static final class Placement {
+        public final Piece piece;
+        public final int x;
+        public final int[] masks;   // piece.getRowMasks() shifted left by x
+        public final int[] skirt;   // piece.getSkirt()
+        public final int[] tops;    // piece.getTops()
+
+        private Placement(Piece piece, int x) {
+            this.piece = piece;
+            this.x = x;
+            int[] rowMasks = piece.getRowMasks();
+            masks = new int[rowMasks.length];
+            for (int i = 0; i < masks.length; i++) {
+                masks[i] = rowMasks[i] << x;
+            }
+            skirt = piece.getSkirt();
+            tops = piece.getTops();
+        }
+    }
+
+    private static final Map<Integer, PlacementTable> tables = new ConcurrentHashMap<Integer, PlacementTable>();
+
+    // placements[id][rotation] -- every placement of piece id,
+    // starting from the given rotation
+    private final Placement[][][] placements;
+
+
+    /**
+     Returns the shared table for boards of the given width.
+     Once a table is built, looking it up takes no lock.
+    */
+    public static PlacementTable forWidth(int width) {
+        return tables.computeIfAbsent(width, PlacementTable::new);
+    }
+
+
+    private PlacementTable(int width) {
+        Piece[] pieces = Piece.getPieces();
+        placements = new Placement[pieces.length][][];
+        for (int id = 0; id < pieces.length; id++) {
+            // count the rotations
+            int rotations = 0;
+            Piece current = pieces[id];
+            do {
+                rotations++;
+                current = current.nextRotation();
+            } while (current != pieces[id]);
+
+            // one list per starting rotation
+            placements[id] = new Placement[rotations][];
+            Piece start = pieces[id];
+            for (int r = 0; r < rotations; r++) {
+                ArrayList<Placement> list = new ArrayList<Placement>();
+                current = start;
+                do {
+                    for (int x = 0; x + current.getWidth() <= width; x++) {
+                        list.add(new Placement(current, x));
+                    }
+                    current = current.nextRotation();
+                } while (current != start);
+                placements[id][r] = list.toArray(new Placement[list.size()]);
+                start = start.nextRotation();
+            }
+        }
+    }
+
+
+    /**
+     Returns every placement of the given piece, starting with its
+     own rotation. The caller should not modify the array.
+    */
+    public Placement[] getPlacements(Piece piece) {
+        return placements[piece.getId()][piece.getRotation()];
+    }
+}
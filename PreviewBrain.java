@@ -0,0 +1,16 @@
+// PreviewBrain.java -- the interface for brains that look ahead
+
+/**
+ A Brain that can also use the pieces coming after the current
+ one, when the game shows them (GameEngine.setPreviewSize()).
+ The plain Brain bestMove() is used when there is no preview.
+*/
+public interface PreviewBrain extends Brain {
+ /**
+  Like Brain.bestMove(), but also given the known upcoming
+  pieces, next one first. The preview array may be empty, and
+  should not be kept or modified by the brain.
+  The returned move is still only the move for the current piece.
+ */
+ public Brain.Move bestMove(Board board, Piece piece, Piece[] preview, int limitHeight, Brain.Move move);
+}
@@ -20,24 +20,20 @@ public class ProblemSet {
 	                                                  // but the number of iteration is increased
 	
 	public static double evaluate(Location location, double[] features) {
+		return evaluate(location.getLoc(), features);
+	}
+
+	// the weighted sum of the features, for any number of dimensions
+	// as long as there is one feature per dimension
+	public static double evaluate(double[] loc, double[] features) {
+		if(features.length != loc.length) {
+			throw new IllegalArgumentException("Got " + features.length + " features for "
+					+ loc.length + " dimensions");
+		}
 		double result = 0;
-		double weightHoles = location.getLoc()[0];
-		double weightMaxHeight = location.getLoc()[1];
-		double weightAverageHeight = location.getLoc()[2];
-		double weightBumpiness = location.getLoc()[3];
-		double weightCompleteLines = location.getLoc()[4];
-		double weightRowTransitions = location.getLoc()[5];
-		double weightColumnTransitions = location.getLoc()[6];
-		double weightWells = location.getLoc()[7];
-		double weightFilledAboveHoles = location.getLoc()[8];
-		double weightRowsWithHoles = location.getLoc()[9];
-		double weightHeightDiff = location.getLoc()[10];
-		
-		result = features[0]*weightHoles + features[1]*weightMaxHeight + features[2]*weightAverageHeight
-				+ features[3]*weightBumpiness + features[4]*weightCompleteLines + features[5]*weightRowTransitions
-				+ features[6]*weightColumnTransitions + features[7]*weightWells + features[8]*weightFilledAboveHoles
-				+ features[9]*weightRowsWithHoles + features[10]*weightHeightDiff;
-		
+		for(int d=0; d<loc.length; d++) {
+			result += features[d] * loc[d];
+		}
 		return result;
 	}
 }
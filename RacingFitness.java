@@ -0,0 +1,217 @@
+//package org.gandhim.pso;
+
+// a GameFitness that races each particle against the incumbent, the best
+// particle so far. when an iteration starts the incumbent is frozen and
+// replayed on that iteration's common seeds, so every particle of the
+// iteration is compared game by game against the same fixed scores, however
+// the evaluations are scheduled, and a lucky incumbent doesn't keep the bar
+// it got from its own games. games are played in rounds; after every round,
+// a particle whose average difference from the incumbent plus z standard
+// errors is still below zero is confidently worse, and it is dropped with
+// the average it has. the games it didn't play go into a bank, and a
+// particle that beats the incumbent draws on the bank to play extra
+// confirmation games (up to twice the base number), so a lucky run doesn't
+// become the new incumbent as easily. only a particle that played every
+// round can take over as the incumbent, and only by beating it on the same
+// seeds -- averages from different iterations are never compared
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RacingFitness implements FitnessFunction {
+	private final GameFitness games;
+	private final int base;
+	private final int roundSize;
+	private final double z;
+	private final int maxGames;
+
+	// the incumbent's weights, and its pieces on the seeds of the
+	// iteration it was last rated in
+	private double[] incumbent;
+	private int[] incumbentPieces;
+	private int incumbentIteration;
+	// the incumbent replayed on the current iteration's seeds, frozen when
+	// the iteration starts; the first evaluation of an iteration plays it
+	// and the others wait for the future
+	private final ConcurrentMap<Integer, CompletableFuture<Bar>> bars =
+			new ConcurrentHashMap<Integer, CompletableFuture<Bar>>();
+
+	private final AtomicLong bank = new AtomicLong();
+	private final AtomicLong played = new AtomicLong();
+	private final AtomicLong replayed = new AtomicLong();
+	private final AtomicLong saved = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	public RacingFitness(int games, long seed) {
+		this(games, seed, Math.max(2, games / 5), 2.0);
+	}
+
+	// roundSize games are played between checks, z is how many standard
+	// errors a particle must be below the incumbent by to be dropped
+	public RacingFitness(int games, long seed, int roundSize, double z) {
+		this.games = new GameFitness(games * 2, seed);
+		this.base = games;
+		this.roundSize = roundSize;
+		this.z = z;
+		this.maxGames = games * 2;
+	}
+
+	public double evaluate(double[] weights) {
+		return evaluate(weights, 0);
+	}
+
+	public double evaluate(double[] weights, int iteration) {
+		long[] seeds = games.getSeeds(iteration);
+		Bar bar = bar(iteration, seeds);
+		GameEngine engine = TrialRunner.newEngine(new LameBrain(weights), true);
+		int[] pieces = new int[maxGames];
+		double sum = 0;
+		double diff = 0; // paired differences from the incumbent
+		double diffSquares = 0;
+		int n = 0;
+
+		while (n < base) {
+			int end = Math.min(n + roundSize, base);
+			for (; n < end; n++) {
+				pieces[n] = TrialRunner.playGame(engine, seeds[n]);
+				sum += pieces[n];
+				if (bar != null) {
+					double d = pieces[n] - bar.pieces[n];
+					diff += d;
+					diffSquares += d * d;
+				}
+			}
+			if (bar != null && n < base && upperBound(diff, diffSquares, n) < 0) {
+				// confidently worse, bank the games it won't play
+				bank.addAndGet(base - n);
+				saved.addAndGet(base - n);
+				dropped.incrementAndGet();
+				played.addAndGet(n);
+				return -sum / n;
+			}
+		}
+
+		// beats the incumbent: confirm it with banked games
+		while (bar != null && n < maxGames && diff > 0 && withdraw()) {
+			pieces[n] = TrialRunner.playGame(engine, seeds[n]);
+			sum += pieces[n];
+			diff += pieces[n] - bar.pieces[n];
+			n++;
+		}
+		played.addAndGet(n);
+		offer(weights, iteration, pieces, n, bar);
+		return -sum / n;
+	}
+
+	// the incumbent replayed on the iteration's seeds, null if there was
+	// none when the iteration started. the replay runs outside any lock;
+	// the evaluations that come in meanwhile wait on its future. the bars
+	// of older iterations are dropped when a new one starts
+	private Bar bar(final int iteration, long[] seeds) {
+		CompletableFuture<Bar> mine = new CompletableFuture<Bar>();
+		CompletableFuture<Bar> future = bars.computeIfAbsent(iteration, k -> mine);
+		if (future == mine) {
+			bars.keySet().removeIf(k -> k < iteration);
+			try {
+				mine.complete(replay(seeds));
+			} catch (RuntimeException | Error e) {
+				mine.completeExceptionally(e);
+				throw e;
+			}
+		}
+		return future.join();
+	}
+
+	private Bar replay(long[] seeds) {
+		double[] weights = getIncumbent();
+		if (weights == null) {
+			return null;
+		}
+		GameEngine engine = TrialRunner.newEngine(new LameBrain(weights), true);
+		int[] pieces = new int[maxGames];
+		for (int i = 0; i < maxGames; i++) {
+			pieces[i] = TrialRunner.playGame(engine, seeds[i]);
+		}
+		played.addAndGet(maxGames);
+		replayed.addAndGet(maxGames);
+		return new Bar(weights, pieces);
+	}
+
+	// the average difference plus z standard errors
+	private double upperBound(double sum, double sumSquares, int n) {
+		double mean = sum / n;
+		double variance = Math.max(0, (sumSquares - n * mean * mean) / (n - 1));
+		return mean + z * Math.sqrt(variance / n);
+	}
+
+	private boolean withdraw() {
+		long left = bank.get();
+		while (left > 0) {
+			if (bank.compareAndSet(left, left - 1)) {
+				saved.decrementAndGet();
+				return true;
+			}
+			left = bank.get();
+		}
+		return false;
+	}
+
+	// a particle that played every round takes over as the incumbent if it
+	// beats it on the games they both have on this iteration's seeds: the
+	// incumbent's own games if it was rated in this iteration, or else its
+	// replay. a result with neither to compare to (an evaluation left over
+	// from an older iteration) can't take over
+	private synchronized void offer(double[] weights, int iteration, int[] pieces, int n, Bar bar) {
+		int[] reference;
+		if (incumbent == null) {
+			reference = new int[0];
+		} else if (incumbentIteration == iteration) {
+			reference = incumbentPieces;
+		} else if (bar != null && bar.weights == incumbent) {
+			reference = bar.pieces;
+		} else {
+			return;
+		}
+		long diff = 0;
+		for (int i = 0; i < Math.min(n, reference.length); i++) {
+			diff += pieces[i] - reference[i];
+		}
+		if (incumbent == null || diff > 0) {
+			incumbent = weights.clone();
+			incumbentPieces = pieces;
+			incumbentIteration = iteration;
+		}
+	}
+
+	private synchronized double[] getIncumbent() {
+		return incumbent;
+	}
+
+	// games played, including the incumbent's replays, and games saved by
+	// dropping particles early (less the ones spent confirming new incumbents)
+	public long getGamesPlayed() { return played.get(); }
+
+	public long getGamesReplayed() { return replayed.get(); }
+
+	public long getGamesSaved() { return saved.get(); }
+
+	public long getParticlesDropped() { return dropped.get(); }
+
+	public String toString() {
+		return "Racing: " + played.get() + " games played (" + replayed.get() + " replaying the incumbent), "
+				+ saved.get() + " games saved, " + dropped.get() + " evaluations dropped early";
+	}
+
+	// the incumbent's pieces on each seed of one iteration
+	private static final class Bar {
+		final double[] weights;
+		final int[] pieces;
+
+		Bar(double[] weights, int[] pieces) {
+			this.weights = weights;
+			this.pieces = pieces;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+// TrialRunner.java
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ Plays a batch of headless games with a brain, spread across
+ a pool of threads. Each worker thread has its own GameEngine
+ (and so its own Board) and its own brain from the factory,
+ so nothing mutable is shared between games.
+
+ <p>Game i always gets the i-th seed split off a master
+ SplittableRandom, so the piece counts for a given master seed
+ are the same no matter how many threads run them.
+*/
+public class TrialRunner {
+    private final Supplier<Brain> brains;
+    private final int threads;
+    private boolean hardDrop = true;
+    private int previewSize;
+
+    /**
+     Makes a runner that uses one thread per core.
+     The factory is called once per worker thread.
+     */
+    public TrialRunner(Supplier<Brain> brains) {
+        this(brains, Runtime.getRuntime().availableProcessors());
+    }
+
+    public TrialRunner(Supplier<Brain> brains, int threads) {
+        this.brains = brains;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     Sets whether games are played in GameEngine's hard drop mode
+     (the default) or a row per tick.
+     */
+    public void setHardDrop(boolean hardDrop) {
+        this.hardDrop = hardDrop;
+    }
+
+    /**
+     Sets how many upcoming pieces the engines show the brain,
+     for a PreviewBrain. The default is none.
+     */
+    public void setPreviewSize(int previewSize) {
+        this.previewSize = previewSize;
+    }
+
+    /**
+     Returns the seeds of the given number of games, each split
+     off a SplittableRandom with the master seed.
+     */
+    public static long[] gameSeeds(long masterSeed, int games) {
+        SplittableRandom master = new SplittableRandom(masterSeed);
+        long[] seeds = new long[games];
+        for (int i = 0; i < games; i++) {
+            seeds[i] = master.split().nextLong();
+        }
+        return seeds;
+    }
+
+    /**
+     Makes a headless engine with the given brain playing.
+     */
+    public static GameEngine newEngine(Brain brain, boolean hardDrop) {
+        GameEngine engine = new GameEngine(1);
+        engine.setBrain(brain);
+        engine.setBrainActive(true);
+        engine.setDrop(true);
+        engine.setHardDrop(hardDrop);
+        return engine;
+    }
+
+    /**
+     Plays one game to the end on the engine, with the
+     given seed, and returns the number of pieces played.
+     */
+    public static int playGame(GameEngine engine, long seed) {
+        engine.startGame(seed);
+        engine.run();
+        return engine.getGamePieces();
+    }
+
+    /**
+     Plays the given number of games and returns the number of
+     pieces played in each, in game order.
+     */
+    public int[] run(int games, long masterSeed) {
+        return run(gameSeeds(masterSeed, games));
+    }
+
+    /**
+     Plays one game per seed and returns the number of pieces
+     played in each, in seed order.
+     */
+    public int[] run(final long[] seeds) {
+        final int[] pieces = new int[seeds.length];
+        final AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(threads, seeds.length);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        GameEngine engine = newEngine(brains.get(), hardDrop);
+                        engine.setPreviewSize(previewSize);
+                        int i;
+                        while ((i = next.getAndIncrement()) < seeds.length) {
+                            pieces[i] = playGame(engine, seeds[i]);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted playing games", e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("Game failed", e.getCause());
+        }
+        finally {
+            pool.shutdown();
+        }
+        return pieces;
+    }
+
+    /**
+     Plays a batch of LameBrain games and prints the pieces played
+     in each and the average, like JTetrisTrain.main.
+     Arguments: [games] [master seed] [threads]
+     */
+    public static void main(String[] args) {
+        int games = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : System.nanoTime();
+        int threads = (args.length > 2) ? Integer.parseInt(args[2])
+            : Runtime.getRuntime().availableProcessors();
+
+        TrialRunner runner = new TrialRunner(LameBrain::new, threads);
+        long start = System.currentTimeMillis();
+        int[] pieces = runner.run(games, seed);
+        long delta = (System.currentTimeMillis() - start)/10;
+
+        int totalPieces = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            System.out.println(pieces[i]);
+            totalPieces += pieces[i];
+        }
+        System.out.println("Average number of pieces: "+(totalPieces/games));
+        System.out.println(games+" games, seed "+seed+", "+threads+" threads, "
+            + Double.toString(delta/100.0) + " seconds");
+    }
+}